@@ -0,0 +1,74 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+
+import java.time.LocalDateTime;
+
+/**
+ * 基准测试使用的样例数据，字段长度与线上数据大致相当
+ */
+public final class BenchmarkData {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2022, 1, 1, 12, 0, 0);
+
+    private BenchmarkData() {
+    }
+
+    public static Shop shop(long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(TIME);
+        shop.setUpdateTime(TIME);
+        return shop;
+    }
+
+    public static Blog blog(long id) {
+        Blog blog = new Blog();
+        blog.setId(id);
+        blog.setShopId(4L);
+        blog.setUserId(2L);
+        blog.setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩");
+        blog.setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg");
+        blog.setContent("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>当然<br/>"
+                + "男朋友给不了的浪漫要学会自己给🍒<br/>无法重来的一生·尽量快乐.<br/><br/>🏰「小筑里·神秘浪漫花园餐厅」🏰<br/><br/>"
+                + "💯这是一家最最最美花园的西餐厅·到处都是花餐桌上是花前台是花  美好无处不在<br/>品一口葡萄酒，维亚红酒马瑟兰·微醺上头工作的疲惫消失无际·生如此多娇🍃");
+        blog.setLiked(127);
+        blog.setComments(104);
+        blog.setCreateTime(TIME);
+        blog.setUpdateTime(TIME);
+        return blog;
+    }
+
+    public static Voucher voucher(long id) {
+        Voucher voucher = new Voucher();
+        voucher.setId(id);
+        voucher.setShopId(1L);
+        voucher.setTitle("100元代金券");
+        voucher.setSubTitle("周一至周五均可使用");
+        voucher.setRules("全场通用\\n无需预约\\n可无限叠加\\n不兑现、不找零\\n仅限堂食");
+        voucher.setPayValue(8000L);
+        voucher.setActualValue(10000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(100);
+        voucher.setBeginTime(TIME);
+        voucher.setEndTime(TIME.plusDays(7));
+        voucher.setCreateTime(TIME);
+        voucher.setUpdateTime(TIME);
+        return voucher;
+    }
+}
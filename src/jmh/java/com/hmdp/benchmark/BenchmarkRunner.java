@@ -0,0 +1,39 @@
+package com.hmdp.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 基准测试入口，按线程数依次运行并把结果写成JSON，便于不同版本之间对比
+ * 可选系统属性：
+ * benchmark.include 要运行的基准测试正则，默认全部
+ * benchmark.threads 逗号分隔的线程数，默认1,4,16,64
+ * benchmark.output  结果目录，默认target/jmh，另外会写入各编码格式的字节数codec-sizes.json
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = System.getProperty("benchmark.include", ".*Benchmark.*");
+        String[] threads = System.getProperty("benchmark.threads", "1,4,16,64").split(",");
+        File output = new File(System.getProperty("benchmark.output", "target/jmh"));
+        output.mkdirs();
+        // 编码后的字节数不是耗时指标，单独输出
+        CacheCodecBenchmark.sizes(new File(output, "codec-sizes.json"));
+        for (String t : threads) {
+            int n = Integer.parseInt(t.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(n)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(output, "result-t" + n + ".json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
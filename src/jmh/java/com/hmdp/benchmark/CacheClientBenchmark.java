@@ -0,0 +1,123 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.NearCache;
+import com.hmdp.utils.RedisLockFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * CacheClient各种查询策略在缓存命中时的吞吐，keys个店铺预先写入redis，每次随机查询一个
+ * 数据库用内存中的对象代替，只在缓存未命中或者逻辑过期重建时调用
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheClientBenchmark {
+
+    @Param({"false", "true"})
+    private boolean nearCache;
+
+    @Param({"json", "binary"})
+    private String codec;
+
+    @Param({"1000"})
+    private int keys;
+
+    private EmbeddedRedis redis;
+    private CacheClient cacheClient;
+    private CacheRebuildExecutor rebuildExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        redis = EmbeddedRedis.start();
+        HotKeyDetector hotKeyDetector = new HotKeyDetector(true, 10, 200, 0.5, 1000, 4096);
+        rebuildExecutor = new CacheRebuildExecutor(hotKeyDetector, 10, 1000, 10000);
+        cacheClient = new CacheClient(redis.getStringRedisTemplate(), redis.getByteRedisTemplate(),
+                CacheCodecBenchmark.codec(codec, 1024),
+                new NearCache(redis.getStringRedisTemplate(), hotKeyDetector,
+                        nearCache, 10000, 60, 1000, 5),
+                new RedisLockFactory(redis.getStringRedisTemplate(), 30000),
+                rebuildExecutor, 3000, CacheClient.TimeoutPolicy.FALLBACK_DB, 1.0, 100);
+        for (long id = 1; id <= keys; id++) {
+            cacheClient.set(CACHE_SHOP_KEY + id, BenchmarkData.shop(id), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            cacheClient.setWithLogicalExpire(logicalKeyPrefix() + id, BenchmarkData.shop(id), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            // 第一次查询未命中，写入提前刷新格式的缓存
+            refreshAhead(id);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        rebuildExecutor.stop();
+        redis.close();
+    }
+
+    @Benchmark
+    public Shop passThrough() {
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, nextId(), Shop.class,
+                BenchmarkData::shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop mutex() {
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, nextId(), Shop.class,
+                BenchmarkData::shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop logicalExpire() {
+        return cacheClient.queryWithLogicalExpire(logicalKeyPrefix(), nextId(), Shop.class,
+                BenchmarkData::shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop refreshAhead() {
+        return refreshAhead(nextId());
+    }
+
+    private Shop refreshAhead(long id) {
+        return cacheClient.queryWithRefreshAhead(refreshKeyPrefix(), id, Shop.class,
+                BenchmarkData::shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    private long nextId() {
+        return ThreadLocalRandom.current().nextLong(1, keys + 1);
+    }
+
+    /**
+     * 逻辑过期的缓存格式不同，单独使用一个前缀
+     */
+    private static String logicalKeyPrefix() {
+        return CACHE_SHOP_KEY + "logical:";
+    }
+
+    private static String refreshKeyPrefix() {
+        return CACHE_SHOP_KEY + "refresh:";
+    }
+}
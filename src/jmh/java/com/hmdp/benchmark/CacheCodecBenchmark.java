@@ -0,0 +1,122 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Voucher;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编解码的耗时，编码后的字节数由sizes()写入codec-sizes.json
+ * codec：json为hutool JSON，binary为smile，binary-lz4为smile并且超过256字节时压缩
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    private static final String[] CODECS = {"json", "binary", "binary-lz4"};
+    private static final String[] ENTITIES = {"shop", "blog", "voucher"};
+    private static final LocalDateTime EXPIRE_TIME = LocalDateTime.of(2022, 1, 1, 12, 30, 0);
+
+    @Param({"json", "binary", "binary-lz4"})
+    private String codec;
+
+    @Param({"shop", "blog", "voucher"})
+    private String entity;
+
+    private CacheCodec cacheCodec;
+    private Object value;
+    private Class<?> type;
+    private byte[] encoded;
+    private byte[] encodedWithLogicalExpire;
+
+    @Setup
+    public void setUp() {
+        cacheCodec = codec(codec, 256);
+        value = entity(entity);
+        type = value.getClass();
+        encoded = cacheCodec.encode(value);
+        encodedWithLogicalExpire = cacheCodec.encodeWithLogicalExpire(value, EXPIRE_TIME);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return cacheCodec.encode(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return cacheCodec.decode(encoded, type);
+    }
+
+    @Benchmark
+    public RedisData decodeWithLogicalExpire() {
+        return cacheCodec.decodeWithLogicalExpire(encodedWithLogicalExpire, type);
+    }
+
+    static CacheCodec codec(String name, int compressThreshold) {
+        switch (name) {
+            case "binary":
+                return new BinaryCacheCodec(0);
+            case "binary-lz4":
+                return new BinaryCacheCodec(compressThreshold);
+            default:
+                return new JsonCacheCodec();
+        }
+    }
+
+    static Object entity(String name) {
+        switch (name) {
+            case "blog":
+                return BenchmarkData.blog(1L);
+            case "voucher":
+                return BenchmarkData.voucher(1L);
+            default:
+                return BenchmarkData.shop(1L);
+        }
+    }
+
+    /**
+     * 各编码格式下每个实体编码后的字节数，写成JSON便于和耗时结果一起对比
+     */
+    static void sizes(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println("[");
+            int n = 0;
+            for (String codec : CODECS) {
+                CacheCodec cacheCodec = codec(codec, 256);
+                for (String entity : ENTITIES) {
+                    Object value = entity(entity);
+                    out.printf("  {\"codec\": \"%s\", \"entity\": \"%s\", \"bytes\": %d, \"bytesWithLogicalExpire\": %d}%s%n",
+                            codec, entity,
+                            cacheCodec.encode(value).length,
+                            cacheCodec.encodeWithLogicalExpire(value, EXPIRE_TIME).length,
+                            ++n < CODECS.length * ENTITIES.length ? "," : "");
+                }
+            }
+            out.println("]");
+        }
+    }
+}
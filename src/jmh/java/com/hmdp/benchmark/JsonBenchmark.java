@@ -0,0 +1,83 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hutool JSONUtil在缓存读写路径上的序列化开销，round-trip = 序列化 + 反序列化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private Shop shop;
+    private Blog blog;
+    private RedisData redisData;
+
+    private String shopJson;
+    private String redisDataJson;
+
+    @Setup
+    public void setUp() {
+        shop = BenchmarkData.shop(1L);
+        blog = BenchmarkData.blog(1L);
+        redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 1, 12, 30, 0));
+        shopJson = JSONUtil.toJsonStr(shop);
+        redisDataJson = JSONUtil.toJsonStr(redisData);
+    }
+
+    @Benchmark
+    public String shopToJson() {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public Shop shopFromJson() {
+        return JSONUtil.toBean(shopJson, Shop.class);
+    }
+
+    @Benchmark
+    public Shop shopRoundTrip() {
+        return JSONUtil.toBean(JSONUtil.toJsonStr(shop), Shop.class);
+    }
+
+    @Benchmark
+    public Blog blogRoundTrip() {
+        return JSONUtil.toBean(JSONUtil.toJsonStr(blog), Blog.class);
+    }
+
+    @Benchmark
+    public Shop redisDataFromJson() {
+        // 与CacheClient.queryWithLogicalExpire相同的两次转换
+        RedisData data = JSONUtil.toBean(redisDataJson, RedisData.class);
+        return JSONUtil.toBean((JSONObject) data.getData(), Shop.class);
+    }
+
+    @Benchmark
+    public Shop redisDataRoundTrip() {
+        RedisData data = JSONUtil.toBean(JSONUtil.toJsonStr(redisData), RedisData.class);
+        return JSONUtil.toBean((JSONObject) data.getData(), Shop.class);
+    }
+}
@@ -0,0 +1,119 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.RedisReentrantLock;
+import com.hmdp.utils.SimpleRedisLLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASED_CHANNEL;
+
+/**
+ * 分布式锁加锁加解锁的吞吐
+ * uncontended：每个线程使用自己的锁
+ * contended：所有线程争抢同一把锁，SimpleRedisLLock失败后间隔1ms重试，RedisReentrantLock阻塞在释放通知上
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LockBenchmark {
+
+    private static final String CONTENDED = "bench:contended";
+
+    @State(Scope.Benchmark)
+    public static class Redis {
+        private EmbeddedRedis redis;
+        private RedisLockFactory lockFactory;
+        private RedisMessageListenerContainer container;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            redis = EmbeddedRedis.start();
+            lockFactory = new RedisLockFactory(redis.getStringRedisTemplate(), 30000);
+            container = new RedisMessageListenerContainer();
+            container.setConnectionFactory(redis.getConnectionFactory());
+            container.addMessageListener(lockFactory, new ChannelTopic(LOCK_RELEASED_CHANNEL));
+            container.afterPropertiesSet();
+            container.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            container.destroy();
+            lockFactory.destroy();
+            redis.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Locks {
+        private ILock simpleLock;
+        private RedisReentrantLock reentrantLock;
+        private ILock contendedSimpleLock;
+        private RedisReentrantLock contendedReentrantLock;
+
+        @Setup(Level.Trial)
+        public void setUp(Redis redis) {
+            String name = "bench:" + UUID.randomUUID();
+            simpleLock = new SimpleRedisLLock(name, redis.redis.getStringRedisTemplate());
+            reentrantLock = redis.lockFactory.getLock(name + ":reentrant");
+            contendedSimpleLock = new SimpleRedisLLock(CONTENDED, redis.redis.getStringRedisTemplate());
+            contendedReentrantLock = redis.lockFactory.getLock(CONTENDED + ":reentrant");
+        }
+    }
+
+    @Benchmark
+    public boolean simpleLock(Locks locks) {
+        boolean success = locks.simpleLock.tryLock(10);
+        if (success) {
+            locks.simpleLock.unlock();
+        }
+        return success;
+    }
+
+    @Benchmark
+    public boolean reentrantLock(Locks locks) {
+        boolean success = locks.reentrantLock.tryLock();
+        if (success) {
+            locks.reentrantLock.unlock();
+        }
+        return success;
+    }
+
+    @Benchmark
+    public void simpleLockContended(Locks locks) throws InterruptedException {
+        while (!locks.contendedSimpleLock.tryLock(10)) {
+            Thread.sleep(1);
+        }
+        locks.contendedSimpleLock.unlock();
+    }
+
+    @Benchmark
+    public boolean reentrantLockContended(Locks locks) throws InterruptedException {
+        boolean success = locks.contendedReentrantLock.tryLock(10, TimeUnit.SECONDS);
+        if (success) {
+            locks.contendedReentrantLock.unlock();
+        }
+        return success;
+    }
+}
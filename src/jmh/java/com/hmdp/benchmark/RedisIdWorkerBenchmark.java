@@ -0,0 +1,57 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 逐次INCR与号段模式的发号吞吐对比，线程数由BenchmarkRunner在1~64之间扫描
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    @Param({"false", "true"})
+    private boolean segment;
+
+    @Param({"1000"})
+    private long segmentSize;
+
+    private EmbeddedRedis redis;
+    private RedisIdWorker redisIdWorker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        redis = EmbeddedRedis.start();
+        redisIdWorker = new RedisIdWorker(redis.getStringRedisTemplate(), segment, segmentSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        redis.close();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("order");
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.RedisBloomFilter;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 店铺、博文、用户id的布隆过滤器，指标注册到全局MeterRegistry
+ */
+@Configuration
+public class BloomFilterConfig {
+
+    @Bean
+    public RedisBloomFilter shopBloomFilter(StringRedisTemplate stringRedisTemplate, BloomFilterProperties properties) {
+        return create("shop", stringRedisTemplate, properties);
+    }
+
+    @Bean
+    public RedisBloomFilter blogBloomFilter(StringRedisTemplate stringRedisTemplate, BloomFilterProperties properties) {
+        return create("blog", stringRedisTemplate, properties);
+    }
+
+    @Bean
+    public RedisBloomFilter userBloomFilter(StringRedisTemplate stringRedisTemplate, BloomFilterProperties properties) {
+        return create("user", stringRedisTemplate, properties);
+    }
+
+    private static RedisBloomFilter create(String name, StringRedisTemplate stringRedisTemplate,
+                                           BloomFilterProperties properties) {
+        BloomFilterProperties.Filter filter = properties.getFilter(name);
+        return new RedisBloomFilter(name, stringRedisTemplate, properties.isEnabled(),
+                filter.getExpectedInsertions(), filter.getFpp(), filter.getMaxMemoryMb(), Metrics.globalRegistry);
+    }
+}
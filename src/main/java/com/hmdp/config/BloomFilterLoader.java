@@ -0,0 +1,106 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.RedisReentrantLock;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 启动时以及每隔hmdp.bloom.check-interval-ms检查一次，标记不存在(首次启动、redis重启、配置变化)时
+ * 从数据库按主键分批重建布隆过滤器，同时刷新填充率指标
+ */
+@Slf4j
+@Component
+public class BloomFilterLoader {
+
+    @Resource
+    private RedisBloomFilter shopBloomFilter;
+    @Resource
+    private RedisBloomFilter blogBloomFilter;
+    @Resource
+    private RedisBloomFilter userBloomFilter;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private RedisLockFactory lockFactory;
+
+    @Scheduled(fixedDelayString = "${hmdp.bloom.check-interval-ms:60000}")
+    public void check() {
+        load(shopBloomFilter, shopService, Shop::getId);
+        load(blogBloomFilter, blogService, Blog::getId);
+        load(userBloomFilter, userService, User::getId);
+    }
+
+    private <T> void load(RedisBloomFilter filter, IService<T> service, Function<T, Long> idOf) {
+        if (!filter.isEnabled()) {
+            return;
+        }
+        try {
+            if (!filter.isReady()) {
+                rebuild(filter, service, idOf);
+            }
+            filter.refreshFillRatio();
+        } catch (Exception e) {
+            // 重建失败时标记不存在，查询全部放行，下次检查时重试
+            log.error("布隆过滤器[{}]加载失败", filter.getName(), e);
+        }
+    }
+
+    private <T> void rebuild(RedisBloomFilter filter, IService<T> service, Function<T, Long> idOf) {
+        //1.多个节点只有一个重建，其它节点跳过，下次检查时标记已经存在
+        RedisReentrantLock lock = lockFactory.getLock("bloom:" + filter.getName());
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (filter.isReady()) {
+                return;
+            }
+            long begin = System.currentTimeMillis();
+            //2.清空旧的位图，重建期间查询全部放行
+            filter.clear();
+            //3.按主键分批写入，每批一次pipeline
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                List<Long> ids = service.query()
+                        .select("id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SystemConstants.DEFAULT_BATCH_SIZE)
+                        .list()
+                        .stream().map(idOf).collect(Collectors.toList());
+                if (ids.isEmpty()) {
+                    break;
+                }
+                lastId = ids.get(ids.size() - 1);
+                filter.load(ids);
+                total += ids.size();
+            }
+            //4.写入标记，开始拦截
+            filter.markReady();
+            log.info("布隆过滤器[{}]重建完成，共{}个id，耗时{}ms", filter.getName(), total, System.currentTimeMillis() - begin);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 布隆过滤器配置，对应application.yaml中的hmdp.bloom
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.bloom")
+public class BloomFilterProperties {
+
+    /**
+     * 是否开启，关闭时所有id都视为可能存在
+     */
+    private boolean enabled = true;
+
+    /**
+     * 检查过滤器是否需要重建、刷新填充率指标的间隔
+     */
+    private long checkIntervalMs = 60000;
+
+    /**
+     * 各过滤器的配置，key为过滤器名称：shop、blog、user，未配置的使用默认值
+     */
+    private Map<String, Filter> filters = new HashMap<>();
+
+    public Filter getFilter(String name) {
+        return filters.getOrDefault(name, new Filter());
+    }
+
+    @Data
+    public static class Filter {
+        /**
+         * 预计的元素个数
+         */
+        private long expectedInsertions = 1000000;
+        /**
+         * 元素个数达到预计值时的误判率
+         */
+        private double fpp = 0.01;
+        /**
+         * 位图占用内存的上限，超过时按上限分配，实际误判率会升高
+         */
+        private long maxMemoryMb = 64;
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmdp.config;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 启动时预热缓存，ApplicationRunner在应用就绪(ApplicationReadyEvent)之前执行完
+ * 按id分批(keyset)从数据库读取，每批用一次pipeline写入redis，写入由concurrency个线程并发执行
+ * 每种数据按照它的读取方式写入：店铺为带TTL的缓存，店铺类型为带版本号的json，秒杀券为库存hash
+ * 店铺的读取走queryWithPassThrough(布隆过滤器+空值缓存)，只认带TTL的格式，所以不写逻辑过期的数据
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.warmup.concurrency:4}")
+    private int concurrency;
+
+    @Value("${hmdp.warmup.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${hmdp.warmup.prefixes:" + CACHE_SHOP_KEY + "," + CACHE_SHOP_TYPE_KEY + "," + SECKILL_STOCK_KEY + "}")
+    private Set<String> prefixes;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!enabled) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+                ThreadFactoryBuilder.create().setNamePrefix("cache-warmup-").build());
+        try {
+            //1.店铺
+            if (prefixes.contains(CACHE_SHOP_KEY)) {
+                warmUp(executor, CACHE_SHOP_KEY, shopService.count(),
+                        lastId -> shopService.query()
+                                .gt("id", lastId)
+                                .orderByAsc("id")
+                                .last("LIMIT " + batchSize)
+                                .list(),
+                        Shop::getId,
+                        shops -> cacheClient.setBatch(shops.stream().collect(
+                                Collectors.toMap(shop -> CACHE_SHOP_KEY + shop.getId(), Function.identity())),
+                                CACHE_SHOP_TTL, TimeUnit.MINUTES));
+            }
+            //2.店铺类型，整体作为一个带版本号的json，同时加载本地副本
+            if (prefixes.contains(CACHE_SHOP_TYPE_KEY)) {
+                try {
+                    shopTypeService.queryTypeListJson();
+                    log.info("缓存预热[{}]完成", CACHE_SHOP_TYPE_KEY);
+                } catch (RuntimeException e) {
+                    log.error("缓存预热[{}]失败", CACHE_SHOP_TYPE_KEY, e);
+                }
+            }
+            //3.未结束的秒杀券库存
+            if (prefixes.contains(SECKILL_STOCK_KEY)) {
+                LocalDateTime now = LocalDateTime.now();
+                warmUp(executor, SECKILL_STOCK_KEY, seckillVoucherService.query().gt("end_time", now).count(),
+                        lastId -> seckillVoucherService.query()
+                                .gt("end_time", now)
+                                .gt("voucher_id", lastId)
+                                .orderByAsc("voucher_id")
+                                .last("LIMIT " + batchSize)
+                                .list(),
+                        SeckillVoucher::getVoucherId,
+                        seckillVoucherService::loadStocks);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        log.info("缓存预热完成，耗时{}ms", System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 读取在调用线程上顺序进行，写入交给线程池，同时进行的写入不超过concurrency批，避免读得太快占满内存
+     * @param pageAfter 根据上一批的最大id查询下一批
+     * @param writer 把一批数据写入redis
+     */
+    private <T> void warmUp(ExecutorService executor, String prefix, long total,
+                            Function<Long, List<T>> pageAfter, Function<T, Long> idOf, Consumer<List<T>> writer)
+            throws InterruptedException {
+        long begin = System.currentTimeMillis();
+        Semaphore permits = new Semaphore(concurrency);
+        AtomicLong written = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            long lastId = 0;
+            while (true) {
+                List<T> batch = pageAfter.apply(lastId);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                lastId = idOf.apply(batch.get(batch.size() - 1));
+                permits.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        writer.accept(batch);
+                        long count = written.addAndGet(batch.size());
+                        log.info("缓存预热[{}]：{}/{}", prefix, count, total);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            log.info("缓存预热[{}]完成，共{}条，耗时{}ms", prefix, written.get(), System.currentTimeMillis() - begin);
+        } catch (ExecutionException | RuntimeException e) {
+            // 预热失败不影响启动，未预热的数据在第一次访问时加载
+            log.error("缓存预热[{}]失败，已写入{}/{}", prefix, written.get(), total, e);
+        }
+    }
+}
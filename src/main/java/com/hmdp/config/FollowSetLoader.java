@@ -0,0 +1,51 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.RedisReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 启动时以及每隔hmdp.follow.check-interval-ms检查一次，标记不存在(首次启动、redis重启、集合更新失败)时
+ * 从数据库分批重建follows:、fans:集合
+ */
+@Slf4j
+@Component
+public class FollowSetLoader {
+
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private RedisLockFactory lockFactory;
+
+    @Scheduled(fixedDelayString = "${hmdp.follow.check-interval-ms:60000}")
+    public void check() {
+        try {
+            if (!followService.isFollowSetsBuilt()) {
+                rebuild();
+            }
+        } catch (Exception e) {
+            // 重建失败时标记不存在，读取继续查询数据库，下次检查时重试
+            log.error("关注集合重建失败", e);
+        }
+    }
+
+    private void rebuild() {
+        //多个节点只有一个重建，其它节点跳过，下次检查时标记已经存在
+        RedisReentrantLock lock = lockFactory.getLock("follow:rebuild");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (!followService.isFollowSetsBuilt()) {
+                followService.rebuildFollowSets();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,25 +1,66 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.ActuatorLoginFilter;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimitInterceptor;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
 
+@Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
+    @Resource
+    private LoginSessionCache loginSessionCache;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RateLimitProperties rateLimitProperties;
+    /**
+     * 不需要登录的接口，请求带有token时仍然获取登录用户
+     */
+    private static final String[] PUBLIC_PATHS = {
+            "/user/login",
+            "/user/code"
+    };
+    /**
+     * 只公开查询的接口，只有GET请求不需要登录，带有token时仍然获取登录用户，例如按用户统计店铺访客
+     * 店铺只公开详情和列表，/shop/{id}/visits等统计接口需要登录；新增、修改店铺和优惠券都需要登录
+     */
+    private static final String[] PUBLIC_READ_PATHS = {
+            "/blog/hot",
+            "/blog/hot/cursor",
+            "/shop/*",
+            "/shop/of/**",
+            "/shop-type/**",
+            "/voucher/list/*"
+    };
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new LoginInterceptor(stringRedisTemplate)).excludePathPatterns(
-                "/user/login",
-                "/user/code",
-                "/blog/hot",
-                "/shop/**",
-                "/shop-type/**",
-                "/voucher/**"
-        );
+        registry.addInterceptor(new LoginInterceptor(loginSessionCache, true))
+                .excludePathPatterns(PUBLIC_PATHS)
+                .excludePathPatterns(PUBLIC_READ_PATHS);
+        registry.addInterceptor(new LoginInterceptor(loginSessionCache, false)).addPathPatterns(PUBLIC_PATHS);
+        registry.addInterceptor(new LoginInterceptor(loginSessionCache, false, true)).addPathPatterns(PUBLIC_READ_PATHS);
+        // 限流拦截器放在登录拦截器之后，才能拿到登录用户
+        registry.addInterceptor(new RateLimitInterceptor(stringRedisTemplate, rateLimitProperties));
+    }
+
+    /**
+     * actuator端点不经过上面的拦截器，指标等端点同样需要登录
+     */
+    @Bean
+    public FilterRegistrationBean<ActuatorLoginFilter> actuatorLoginFilter() {
+        FilterRegistrationBean<ActuatorLoginFilter> registration =
+                new FilterRegistrationBean<>(new ActuatorLoginFilter(loginSessionCache));
+        registration.addUrlPatterns("/actuator/*");
+        return registration;
     }
 }
@@ -0,0 +1,60 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 接口限流配置，对应application.yaml中的hmdp.rate-limit
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.rate-limit")
+public class RateLimitProperties {
+
+    /**
+     * 是否开启限流
+     */
+    private boolean enabled = true;
+
+    /**
+     * 获取客户端ip的请求头，为空时使用连接的地址
+     */
+    private String ipHeader;
+
+    /**
+     * 限流规则，key为@RateLimit的value
+     */
+    private Map<String, Rule> rules = new HashMap<>();
+
+    @Data
+    public static class Rule {
+        /**
+         * 每个登录用户的限制，未登录的请求不受该维度限制
+         */
+        private Limit user;
+        /**
+         * 每个ip的限制
+         */
+        private Limit ip;
+        /**
+         * 接口整体的限制
+         */
+        private Limit global;
+    }
+
+    @Data
+    public static class Limit {
+        /**
+         * 窗口内允许的请求数
+         */
+        private int limit;
+        /**
+         * 滑动窗口的长度
+         */
+        private long windowSeconds = 1;
+    }
+}
@@ -0,0 +1,87 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.NearCache;
+import com.hmdp.utils.RedisCommandLatencyRecorder;
+import com.hmdp.utils.RedisLockFactory;
+import io.lettuce.core.event.DefaultEventPublisherOptions;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_LOGOUT_CHANNEL;
+
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 替换spring boot默认的ClientResources，记录每条redis命令的耗时
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ClientResources lettuceClientResources(MeterRegistry meterRegistry) {
+        return DefaultClientResources.builder()
+                .commandLatencyCollector(new RedisCommandLatencyRecorder(meterRegistry))
+                .commandLatencyPublisherOptions(DefaultEventPublisherOptions.disabled())
+                .build();
+    }
+
+    /**
+     * 缓存值按字节读写的模板，key仍然是字符串
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.setHashKeySerializer(RedisSerializer.string());
+        template.setHashValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    /**
+     * 缓存编码格式，binary同样能读取json格式的旧数据
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec:json}") String codec,
+                                 @Value("${hmdp.cache.compress-threshold:1024}") int compressThreshold) {
+        if ("binary".equalsIgnoreCase(codec)) {
+            return new BinaryCacheCodec(compressThreshold);
+        }
+        return new JsonCacheCodec();
+    }
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       NearCache nearCache,
+                                                                       LoginSessionCache loginSessionCache,
+                                                                       CacheClient cacheClient,
+                                                                       RedisLockFactory lockFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 订阅缓存失效频道
+        container.addMessageListener(nearCache, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 订阅缓存重建完成频道
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_REBUILT_CHANNEL));
+        // 订阅锁释放频道
+        container.addMessageListener(lockFactory, new ChannelTopic(LOCK_RELEASED_CHANNEL));
+        // 订阅登出频道
+        container.addMessageListener(loginSessionCache, new ChannelTopic(LOGIN_LOGOUT_CHANNEL));
+        return container;
+    }
+}
@@ -1,19 +1,22 @@
 package com.hmdp.controller;
 
 
+import cn.hutool.core.util.BooleanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
-import com.hmdp.service.IUserService;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.VisitCounter;
 import org.apache.logging.log4j.message.ReusableMessage;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
 import java.util.List;
 
 /**
@@ -31,7 +34,7 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
     @Resource
-    private IUserService userService;
+    private VisitCounter visitCounter;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -52,33 +55,48 @@ public class BlogController {
         UserDTO user = UserHolder.getUser();
         // 根据用户查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
 
+    @GetMapping("/of/me/cursor")
+    public Result queryMyBlogCursor(@RequestParam(value = "lastId", required = false) Long lastId) {
+        return blogService.queryMyBlogCursor(lastId);
+    }
+
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
-        });
-        return Result.ok(records);
+        return blogService.queryHotBlog(current);
+    }
+
+    @GetMapping("/hot/cursor")
+    public Result queryHotBlogCursor(@RequestParam(value = "max", required = false) Double max,
+                                     @RequestParam(value = "epoch", required = false) Long epoch,
+                                     @RequestParam(value = "offset", defaultValue = "0") Integer offset) {
+        return blogService.queryHotBlogCursor(max, epoch, offset);
     }
 
     @GetMapping("/{id}")
-    public Result queryBlogById(@PathVariable("id") Long id){
-        return blogService.queryBlogById(id);
+    public Result queryBlogById(@PathVariable("id") Long id, HttpServletRequest request){
+        Result result = blogService.queryBlogById(id);
+        // 只统计存在的笔记
+        if (BooleanUtil.isTrue(result.getSuccess())) {
+            visitCounter.record(VisitCounter.BLOG, id, request);
+        }
+        return result;
+    }
+
+    /**
+     * 查询笔记的访问统计，begin默认最近7天，end默认今天
+     */
+    @GetMapping("/{id}/visits")
+    public Result queryBlogVisits(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "begin", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate begin,
+            @RequestParam(value = "end", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+        return Result.ok(visitCounter.query(VisitCounter.BLOG, id, begin, end));
     }
 
     @GetMapping("/of/follow")
@@ -30,4 +30,9 @@ public class FollowController {
     public Result isFollow(@PathVariable("id") Long id){
         return followService.isFollow(id);
     }
+
+    @GetMapping("/common/{id}")
+    public Result followCommons(@PathVariable("id") Long id){
+        return followService.followCommons(id);
+    }
 }
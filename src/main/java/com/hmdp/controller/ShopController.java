@@ -1,15 +1,20 @@
 package com.hmdp.controller;
 
 
+import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.VisitCounter;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
 
 /**
  * <p>
@@ -25,6 +30,8 @@ public class ShopController {
 
     @Resource
     public IShopService shopService;
+    @Resource
+    private VisitCounter visitCounter;
 
     /**
      * 根据id查询商铺信息
@@ -32,8 +39,28 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryById(id);
+    public Result queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
+        Result result = shopService.queryById(id);
+        // 只统计存在的店铺
+        if (BooleanUtil.isTrue(result.getSuccess())) {
+            visitCounter.record(VisitCounter.SHOP, id, request);
+        }
+        return result;
+    }
+
+    /**
+     * 查询商铺的访问统计
+     * @param id 商铺id
+     * @param begin 开始日期，默认最近7天
+     * @param end 结束日期，默认今天
+     * @return 每天和整个日期范围的uv、pv
+     */
+    @GetMapping("/{id}/visits")
+    public Result queryShopVisits(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "begin", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate begin,
+            @RequestParam(value = "end", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+        return Result.ok(visitCounter.query(VisitCounter.SHOP, id, begin, end));
     }
 
     /**
@@ -43,10 +70,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库和GEO集合
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -65,19 +90,18 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度，和纬度一起传入时按距离由近到远排序
+     * @param y 纬度
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByType(typeId, current, x, y);
     }
 
     /**
@@ -94,8 +118,36 @@ public class ShopController {
         // 根据类型分页查询
         Page<Shop> page = shopService.query()
                 .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 返回数据
         return Result.ok(page.getRecords());
     }
+
+    /**
+     * 根据商铺类型游标分页查询商铺信息
+     * @param typeId 商铺类型
+     * @param lastId 上一页返回的lastId，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/cursor")
+    public Result queryShopByTypeCursor(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return shopService.queryShopByTypeCursor(typeId, lastId);
+    }
+
+    /**
+     * 根据商铺名称关键字游标分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param lastId 上一页返回的lastId，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/name/cursor")
+    public Result queryShopByNameCursor(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return shopService.queryShopByNameCursor(name, lastId);
+    }
 }
@@ -7,6 +7,8 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RateLimit;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -33,9 +35,13 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private RedisBloomFilter userBloomFilter;
+
     /**
      * 发送手机验证码
      */
+    @RateLimit("sms-code")
     @PostMapping("code")
     public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
         //  发送短信验证码并保存验证码
@@ -59,9 +65,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader("authorization") String token){
+        return userService.logout(token);
     }
 
     @GetMapping("/me")
@@ -73,6 +78,10 @@ public class UserController {
 
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
+        // 用户一定不存在时，不查询数据库
+        if (!userBloomFilter.mightContain(userId)) {
+            return Result.ok();
+        }
         // 查询详情
         UserInfo info = userInfoService.getById(userId);
         if (info == null) {
@@ -94,4 +103,9 @@ public class UserController {
     public Result signCount(){
         return userService.signCount();
     }
+
+    @GetMapping("/sign/stats")
+    public Result signStats(){
+        return userService.signStats();
+    }
 }
@@ -0,0 +1,37 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 游标分页查询返回类，下一页把lastSortKey和lastId原样传回，不需要count查询
+ */
+@Data
+public class CursorResult {
+    private List<?> list;
+    /**
+     * 本页最后一条的排序字段，只按id排序时为空
+     */
+    private Long lastSortKey;
+    private Long lastId;
+    private Boolean hasMore;
+
+    /**
+     * @param rows 查询时多取一条，用于判断是否还有下一页
+     */
+    public static <T> CursorResult of(List<T> rows, int pageSize, Function<T, Long> sortKey, Function<T, Long> id) {
+        CursorResult result = new CursorResult();
+        boolean hasMore = rows.size() > pageSize;
+        List<T> list = hasMore ? rows.subList(0, pageSize) : rows;
+        result.setList(list);
+        result.setHasMore(hasMore);
+        if (!list.isEmpty()) {
+            T last = list.get(list.size() - 1);
+            result.setLastSortKey(sortKey == null ? null : sortKey.apply(last));
+            result.setLastId(id.apply(last));
+        }
+        return result;
+    }
+}
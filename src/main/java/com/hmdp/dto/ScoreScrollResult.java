@@ -0,0 +1,25 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 按分数滚动分页查询返回类，下一页把minScore、epoch、offset原样传回
+ */
+@Data
+public class ScoreScrollResult {
+    private List<?> list;
+    /**
+     * 本页最小的分数
+     */
+    private Double minScore;
+    /**
+     * 分数对应的衰减起点，翻页期间起点移动时用于换算minScore
+     */
+    private Long epoch;
+    /**
+     * 下一页要跳过的条数，即分数等于minScore的条数
+     */
+    private Integer offset;
+}
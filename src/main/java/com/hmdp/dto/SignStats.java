@@ -0,0 +1,37 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 签到统计：截止今天的连续签到天数，以及最近几个月的签到日历
+ */
+@Data
+public class SignStats {
+    /**
+     * 截止今天的连续签到天数，可以跨月，今天没有签到时为0
+     */
+    private Integer streak;
+    /**
+     * 日历中所有月份的签到天数之和
+     */
+    private Integer total;
+    /**
+     * 从本月开始倒序
+     */
+    private List<Month> months;
+
+    @Data
+    public static class Month {
+        /**
+         * yyyy-MM
+         */
+        private String month;
+        private Integer count;
+        /**
+         * 签到的日期，升序
+         */
+        private List<Integer> days;
+    }
+}
@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 店铺、博文在一段日期内的访问统计，uv是HyperLogLog的估计值，误差约0.81%
+ */
+@Data
+public class VisitStats {
+    /**
+     * 整个日期范围内的去重访客数，同一访客在多天访问只算一次
+     */
+    private Long uv;
+    private Long pv;
+    private List<Day> days;
+
+    @Data
+    public static class Day {
+        /**
+         * yyyy-MM-dd
+         */
+        private String date;
+        private Long uv;
+        private Long pv;
+    }
+}
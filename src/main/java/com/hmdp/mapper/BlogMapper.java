@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +16,9 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 批量更新点赞数 UPDATE tb_blog SET liked = CASE id WHEN ? THEN ? ... END WHERE id IN (...)
+     * @param likes 博文id到点赞数的映射
+     */
+    int updateLikedBatch(@Param("likes") Map<Long, Long> likes);
 }
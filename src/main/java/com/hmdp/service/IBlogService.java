@@ -21,4 +21,16 @@ public interface IBlogService extends IService<Blog> {
     Result saveBlog(Blog blog);
 
     Result queryBlogOfFollow(Long max, Integer offset);
+
+    Result queryHotBlog(Integer current);
+
+    /**
+     * 按热门排行的分数滚动分页查询热门博文，max为空时查询第一页
+     */
+    Result queryHotBlogCursor(Double max, Long epoch, Integer offset);
+
+    /**
+     * 按id倒序游标分页查询当前用户的博文，lastId为空时查询第一页
+     */
+    Result queryMyBlogCursor(Long lastId);
 }
@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 /**
  * <p>
  *  服务类
@@ -17,4 +20,34 @@ public interface IFollowService extends IService<Follow> {
     Result follow(Long id, Boolean isFollow);
 
     Result isFollow(Long id);
+
+    /**
+     * 当前用户和id共同关注的人
+     */
+    Result followCommons(Long id);
+
+    /**
+     * 粉丝数
+     */
+    long countFans(Long userId);
+
+    /**
+     * 分批遍历粉丝id
+     */
+    void forEachFanBatch(Long userId, int batchSize, Consumer<List<Long>> action);
+
+    /**
+     * userId关注的人中，属于candidatesKey这个redis集合的用户
+     */
+    List<Long> queryFollowedAmong(Long userId, String candidatesKey);
+
+    /**
+     * follows:、fans:集合是否已经从数据库建好
+     */
+    boolean isFollowSetsBuilt();
+
+    /**
+     * 从数据库分批重建全部关注集合，完成后写入标记
+     */
+    void rebuildFollowSets();
 }
@@ -3,6 +3,8 @@ package com.hmdp.service;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务类
@@ -13,4 +15,14 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 把秒杀券的库存和起止时间写入redis，已存在的字段不会被覆盖
+     * 写入的库存是数据库库存减去stream中还没有落库的订单数
+     */
+    void loadStock(SeckillVoucher voucher);
+
+    /**
+     * 批量写入，一次pipeline完成，用于缓存预热
+     */
+    void loadStocks(Collection<SeckillVoucher> vouchers);
 }
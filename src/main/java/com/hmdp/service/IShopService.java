@@ -17,4 +17,23 @@ public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
 
     Result update(Shop shop);
+
+    Result saveShop(Shop shop);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 按id游标分页查询某类型的店铺，lastId为空时查询第一页
+     */
+    Result queryShopByTypeCursor(Integer typeId, Long lastId);
+
+    /**
+     * 按id游标分页查询名称包含关键字的店铺，lastId为空时查询第一页
+     */
+    Result queryShopByNameCursor(String name, Long lastId);
+
+    /**
+     * 把所有店铺坐标按类型加载到redis的GEO集合中
+     */
+    void loadShopGeo();
 }
@@ -3,6 +3,8 @@ package com.hmdp.service;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +15,18 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    /**
+     * 查询店铺类型列表，返回序列化好的Result json，优先使用本地副本，版本号变化后重新加载
+     */
+    byte[] queryTypeListJson();
+
+    /**
+     * 店铺类型变化后调用，使各节点的缓存失效
+     */
+    void bumpVersion();
+
+    /**
+     * 从数据库查询按sort排序的全部店铺类型
+     */
+    List<ShopType> listSorted();
 }
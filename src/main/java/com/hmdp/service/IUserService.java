@@ -21,7 +21,17 @@ public interface IUserService extends IService<User> {
 
     Result login(LoginFormDTO loginForm, HttpSession session);
 
+    Result logout(String token);
+
     Result sign();
 
+    /**
+     * 截止今天的连续签到天数，可以跨月
+     */
     Result signCount();
+
+    /**
+     * 连续签到天数、最近12个月的签到日历和每月签到天数
+     */
+    Result signStats();
 }
@@ -4,8 +4,11 @@ import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BlogHotRanking;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +20,16 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    @Resource
+    private BlogHotRanking blogHotRanking;
+
+    @Override
+    public boolean save(BlogComments comments) {
+        boolean saved = super.save(comments);
+        // 评论计入博文的热门分数
+        if (saved && comments.getBlogId() != null) {
+            blogHotRanking.onComment(comments.getBlogId());
+        }
+        return saved;
+    }
 }
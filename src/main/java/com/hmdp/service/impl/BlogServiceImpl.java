@@ -1,29 +1,71 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScoreScrollResult;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedFanoutExecutor;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.RedisReentrantLock;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_COUNT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DIRTY_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_RECONCILED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
+import static com.hmdp.utils.RedisConstants.FEED_BIG_AUTHOR_KEY;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
 
 /**
  * <p>
@@ -33,6 +75,7 @@ import static com.hmdp.utils.RedisConstants.FEED_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
@@ -40,8 +83,20 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private IUserService userService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private BlogHotRanking blogHotRanking;
+    @Resource
+    private RedisBloomFilter blogBloomFilter;
+    @Resource
+    private RedisLockFactory lockFactory;
     @Override
     public Result queryBlogById(Long id) {
+        //0.布隆过滤器判断一定不存在的id，不查数据库
+        if (!blogBloomFilter.mightContain(id)) {
+            return Result.fail("笔记不存在");
+        }
 
         //1.查询blog
         Blog blog = getById(id);
@@ -49,10 +104,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             return Result.fail("笔记不存在");
         }
         //2.查询blog有关的用户
-        Long userId=blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+        queryBlogUser(blog);
 
         //3.更新：查询blog是否被点赞
         isBlogLiked(blog);
@@ -60,13 +112,81 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
     private void isBlogLiked(Blog blog) {
-        //1.获取登录用户
-        Long userId = UserHolder.getUser().getId();
+        queryBlogsLiked(Collections.singletonList(blog));
+    }
 
-        //2.判断当前用户是否已经点赞
-        String key = "blog:liked:" + blog.getId();
-        Boolean isMember = stringRedisTemplate.opsForSet().isMember(key, userId.toString());
-        blog.setIsLike(BooleanUtil.isTrue(isMember));
+    @Override
+    public Result queryHotBlog(Integer current) {
+        //1.从热门排行中取一页博文id ZREVRANGE blog:hot from to
+        List<Long> ids = blogHotRanking.page(current, SystemConstants.MAX_PAGE_SIZE);
+        if (ids != null && !ids.isEmpty()) {
+            //2.一次查询博文，按排行的顺序返回
+            Map<Long, Blog> blogMap = listByIds(ids).stream()
+                    .collect(Collectors.toMap(Blog::getId, Function.identity()));
+            List<Blog> blogs = ids.stream().map(blogMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+            //3.批量查询用户和点赞状态
+            queryBlogsUserAndLiked(blogs);
+            return Result.ok(blogs);
+        }
+        if (ids != null) {
+            // 排行已经建立但已经没有下一页
+            return Result.ok(Collections.emptyList());
+        }
+        // 排行还没有建立，按点赞数查询数据库
+        Page<Blog> page = query()
+                .orderByDesc("liked")
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        // 获取当前页数据
+        List<Blog> records = page.getRecords();
+        // 批量查询用户和点赞状态
+        queryBlogsUserAndLiked(records);
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result queryHotBlogCursor(Double max, Long epoch, Integer offset) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        //1.从热门排行中取一页 ZREVRANGEBYSCORE blog:hot max -inf WITHSCORES LIMIT offset count
+        BlogHotRanking.Scroll scroll = blogHotRanking.scroll(max, epoch, offset, size);
+        ScoreScrollResult r = new ScoreScrollResult();
+        if (scroll == null) {
+            //2.排行还没有建立，按点赞数查询数据库，offset为已经返回的条数；带着排行的游标时从头开始
+            int skip = max == null ? offset : 0;
+            List<Blog> blogs = query()
+                    .orderByDesc("liked", "id")
+                    .last("LIMIT " + skip + ", " + size)
+                    .list();
+            queryBlogsUserAndLiked(blogs);
+            r.setList(blogs);
+            r.setOffset(skip + blogs.size());
+            return Result.ok(r);
+        }
+        //3.一次查询博文，按排行的顺序返回
+        List<Long> ids = scroll.getIds();
+        List<Blog> blogs = Collections.emptyList();
+        if (!ids.isEmpty()) {
+            Map<Long, Blog> blogMap = listByIds(ids).stream()
+                    .collect(Collectors.toMap(Blog::getId, Function.identity()));
+            blogs = ids.stream().map(blogMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+            queryBlogsUserAndLiked(blogs);
+        }
+        //4.封装并返回
+        r.setList(blogs);
+        r.setMinScore(scroll.getMinScore());
+        r.setEpoch(scroll.getEpoch());
+        r.setOffset(scroll.getOffset());
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryMyBlogCursor(Long lastId) {
+        List<Blog> blogs = query()
+                .eq("user_id", UserHolder.getUser().getId())
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        return Result.ok(CursorResult.of(blogs, SystemConstants.MAX_PAGE_SIZE, null, Blog::getId));
     }
 
     @Override
@@ -74,33 +194,265 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         //1.获取登录用户
         Long userId = UserHolder.getUser().getId();
 
-        //2.判断当前用户是否已经点赞
-        String key = "blog:liked:" + id;
-        Boolean isMember = stringRedisTemplate.opsForSet().isMember(key, userId.toString());
+        //2.博文必须存在：布隆过滤器拦截一定不存在的id，还没有人点赞过的博文再查一次数据库
+        // 已有点赞集合的博文在第一次点赞时已经查过
+        if (!blogBloomFilter.mightContain(id)) {
+            return Result.fail("笔记不存在");
+        }
+        if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_LIKED_KEY + id)) && query().eq("id", id).count() == 0) {
+            return Result.fail("笔记不存在");
+        }
+
+        //3.在redis中原子地切换点赞状态并更新点赞数，数据库由定时任务批量刷新
+        Long liked = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKED_COUNT_KEY + id, BLOG_LIKED_DIRTY_KEY),
+                userId.toString(), id.toString()
+        );
+        //4.更新热门排行
+        blogHotRanking.onLike(id, liked != null && liked == 1L);
+
+        return Result.ok();
 
-        if(BooleanUtil.isFalse(isMember)){
-            //3.如果未点赞，可以点赞
-            //3.1数据库点赞数+1
-            boolean success = update().setSql("liked=liked+1").eq("id", id).update();
-            //3.2保存用户到redis的set集合
-            if(success){
-                stringRedisTemplate.opsForSet().add(key,userId.toString());
+    }
+
+    /**
+     * 把点赞数有变化的博文批量刷到数据库
+     * 多个节点同时刷盘时，先SPOP的节点可能后写入，用旧的点赞数覆盖新的，所以同一时间只有一个节点刷盘
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.like-flush-interval-ms:5000}")
+    public void flushLikedCounts() {
+        RedisReentrantLock lock = lockFactory.getLock("blog:liked:flush");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            flushLikedBatches();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLikedBatches() {
+        while (true) {
+            //1.取出一批待刷盘的博文id SPOP key count
+            List<String> ids = stringRedisTemplate.opsForSet().pop(BLOG_LIKED_DIRTY_KEY, likeFlushBatchSize);
+            if (ids == null || ids.isEmpty()) {
+                return;
+            }
+            //2.批量读取点赞数
+            List<String> counts = stringRedisTemplate.opsForValue().multiGet(
+                    ids.stream().map(id -> BLOG_LIKED_COUNT_KEY + id).collect(Collectors.toList()));
+            Map<Long, Long> likes = new HashMap<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                String count = counts == null ? null : counts.get(i);
+                if (count != null) {
+                    likes.put(Long.valueOf(ids.get(i)), Math.max(0L, Long.parseLong(count)));
+                }
+            }
+            //3.一条CASE语句批量更新
+            try {
+                if (!likes.isEmpty()) {
+                    getBaseMapper().updateLikedBatch(likes);
+                }
+            } catch (Exception e) {
+                // 刷盘失败，放回待刷盘集合，下次重试
+                stringRedisTemplate.opsForSet().add(BLOG_LIKED_DIRTY_KEY, ids.toArray(new String[0]));
+                log.error("点赞数刷新到数据库失败", e);
+                return;
+            }
+            if (ids.size() < likeFlushBatchSize) {
+                return;
             }
         }
-        else {
-            //4.如果已点赞,取消点赞
-            //4.1点赞数-1
-            boolean success = update().setSql("liked=liked-1").eq("id", id).update();
-            //4.2把用户从redis中的set集合中移除
-            stringRedisTemplate.opsForSet().remove(key,userId.toString());
+    }
+
+    /**
+     * redis重启丢失标记后，由抢到锁的节点根据点赞集合重建点赞数，完成后才写入标记
+     * 重建失败或节点中途宕机时标记不存在，下次检查时重试
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.like-reconcile-check-ms:60000}")
+    public void reconcileLikedCounts() {
+        try {
+            if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_LIKED_RECONCILED_KEY))) {
+                return;
+            }
+            RedisReentrantLock lock = lockFactory.getLock("blog:liked:reconcile");
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_LIKED_RECONCILED_KEY))) {
+                    rebuildLikedCounts();
+                    stringRedisTemplate.opsForValue().set(BLOG_LIKED_RECONCILED_KEY, "1");
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("点赞数重建失败", e);
         }
+    }
 
-        return Result.ok();
+    private void rebuildLikedCounts() {
+        //1.SCAN所有点赞集合 blog:liked:<id>
+        ScanOptions options = ScanOptions.scanOptions().match(BLOG_LIKED_KEY + "[0-9]*").count(likeFlushBatchSize).build();
+        List<String> keys = new ArrayList<>(likeFlushBatchSize);
+        int total = 0;
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            while (cursor != null && cursor.hasNext()) {
+                keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                if (keys.size() >= likeFlushBatchSize) {
+                    total += rebuildLikedCounts(keys);
+                    keys.clear();
+                }
+            }
+        } catch (IOException e) {
+            log.error("关闭SCAN游标失败", e);
+        }
+        total += rebuildLikedCounts(keys);
+        log.info("点赞数重建完成，共{}篇博文", total);
+    }
+
+    /**
+     * 把衰减起点移到当前时间并裁剪
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.hot.maintain-interval-ms:3600000}")
+    public void maintainHotBlogs() {
+        if (!blogHotRanking.tryAcquireMaintenance(hotMaintainIntervalMillis)) {
+            return;
+        }
+        try {
+            long removed = blogHotRanking.renormalize();
+            log.info("热门博文排行维护完成，裁剪{}篇", removed);
+        } catch (Exception e) {
+            log.error("热门博文排行维护失败", e);
+        }
+    }
+
+    /**
+     * 启动时以及每隔hmdp.blog.hot.seed-check-ms检查一次，标记不存在(首次启动、redis重启)时从数据库重建热门排行
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.hot.seed-check-ms:60000}")
+    public void checkHotBlogsSeeded() {
+        try {
+            if (blogHotRanking.isSeeded()) {
+                return;
+            }
+            //多个节点只有一个重建，其它节点跳过，下次检查时标记已经存在
+            RedisReentrantLock lock = lockFactory.getLock("blog:hot:seed");
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                if (!blogHotRanking.isSeeded()) {
+                    seedHotBlogs();
+                    blogHotRanking.markSeeded();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            // 重建失败时不写标记，下次检查时重试
+            log.error("热门博文排行重建失败", e);
+        }
+    }
+
+    private void seedHotBlogs() {
+        //1.按id分批查询计算分数需要的字段
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            List<Blog> blogs = query()
+                    .select("id", "liked", "comments", "create_time")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SystemConstants.DEFAULT_BATCH_SIZE)
+                    .list();
+            if (blogs.isEmpty()) {
+                break;
+            }
+            lastId = blogs.get(blogs.size() - 1).getId();
+            //2.每批一次pipeline写入
+            blogHotRanking.seed(blogs);
+            total += blogs.size();
+        }
+        log.info("热门博文排行重建完成，共{}篇博文", total);
+    }
 
+    /**
+     * 每批用一次脚本按集合大小写入点赞数并标记待刷盘，SCARD与SET之间不会插入点赞
+     */
+    private int rebuildLikedCounts(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        //2.KEYS为待刷盘集合和每篇博文的点赞集合、点赞数，ARGV为博文id
+        List<String> scriptKeys = new ArrayList<>(keys.size() * 2 + 1);
+        String[] blogIds = new String[keys.size()];
+        scriptKeys.add(BLOG_LIKED_DIRTY_KEY);
+        for (int i = 0; i < keys.size(); i++) {
+            blogIds[i] = keys.get(i).substring(BLOG_LIKED_KEY.length());
+            scriptKeys.add(keys.get(i));
+            scriptKeys.add(BLOG_LIKED_COUNT_KEY + blogIds[i]);
+        }
+        //3.批量写入点赞数，并标记待刷盘
+        stringRedisTemplate.execute(REBUILD_LIKED_SCRIPT, scriptKeys, (Object[]) blogIds);
+        return keys.size();
     }
 
     @Resource
     private IFollowService followService;
+
+    @Resource
+    private FeedFanoutExecutor feedFanoutExecutor;
+
+    /**
+     * 粉丝数达到该值的作者只写发件箱，粉丝读取时再拉取
+     */
+    @Value("${hmdp.feed.big-author-threshold:5000}")
+    private int bigAuthorThreshold;
+
+    /**
+     * 每个收件箱、发件箱保留的最大笔记数
+     */
+    @Value("${hmdp.feed.inbox-max-size:1000}")
+    private int inboxMaxSize;
+
+    @Value("${hmdp.feed.fanout-batch-size:500}")
+    private int fanoutBatchSize;
+
+    @Value("${hmdp.blog.like-flush-batch-size:500}")
+    private int likeFlushBatchSize;
+
+    @Value("${hmdp.blog.hot.maintain-interval-ms:3600000}")
+    private long hotMaintainIntervalMillis;
+
+    private static final int FEED_PAGE_SIZE = 2;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> REBUILD_LIKED_SCRIPT;
+    static {
+        REBUILD_LIKED_SCRIPT = new DefaultRedisScript<>();
+        REBUILD_LIKED_SCRIPT.setLocation(new ClassPathResource("rebuild_liked.lua"));
+        REBUILD_LIKED_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 按分数、成员倒序，与ZREVRANGEBYSCORE的顺序一致
+     */
+    private static final Comparator<ZSetOperations.TypedTuple<String>> FEED_ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>, Double>comparing(ZSetOperations.TypedTuple::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue)
+                    .reversed();
+
     @Override
     public Result saveBlog(Blog blog) {
 
@@ -110,42 +462,110 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 2.保存探店博文
         boolean success = save(blog);
         if(!success){
-            Result.fail("笔记新增失败");
-        }
-        //3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id =?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        //4。推送笔记id给所有粉丝
-        for(Follow follow:follows){
-            //4.1获取粉丝id
-            Long userId = follow.getUserId();
-            //4.2推送
-            String key="feed:"+userId;
-            stringRedisTemplate.opsForZSet().add(key,blog.getId().toString(),System.currentTimeMillis());
+            return Result.fail("笔记新增失败");
+        }
+        // 3.写入作者自己的发件箱，并加入布隆过滤器和热门排行
+        String blogId = blog.getId().toString();
+        blogBloomFilter.put(blog.getId());
+        blogHotRanking.onPublish(blog.getId());
+        long timestamp = System.currentTimeMillis();
+        addToFeed(stringRedisTemplate, FEED_OUTBOX_KEY + user.getId(), blogId, timestamp);
+        // 4.查询粉丝数 SCARD fans:<userId>
+        long fans = followService.countFans(user.getId());
+        String authorId = user.getId().toString();
+        if (fans >= bigAuthorThreshold) {
+            // 4.1.大V只写发件箱，标记后由粉丝读取时拉取
+            stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHOR_KEY, authorId);
+        } else if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHOR_KEY, authorId))) {
+            // 4.2.粉丝数降到阈值以下的大V，把发件箱推送到粉丝的收件箱后再取消标记，粉丝不会看不到之前的笔记
+            feedFanoutExecutor.execute(() -> demoteBigAuthor(user.getId()));
+        } else if (fans > 0) {
+            // 4.3.普通作者异步分批推送到粉丝的收件箱
+            feedFanoutExecutor.execute(() -> fanOut(user.getId(), Collections.singletonMap(blogId, (double) timestamp)));
         }
         // 5.返回id
         return Result.ok(blog.getId());
     }
 
+    /**
+     * 分批遍历粉丝，每批用一次pipeline推送并裁剪收件箱
+     * @param blogs 笔记id -> 发布时间戳
+     */
+    private void fanOut(Long authorId, Map<String, Double> blogs) {
+        followService.forEachFanBatch(authorId, fanoutBatchSize, fanIds ->
+                //推送笔记id给这批粉丝
+                stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object execute(RedisOperations operations) {
+                        for (Long fanId : fanIds) {
+                            blogs.forEach((blogId, timestamp) ->
+                                    addToFeed(operations, FEED_KEY + fanId, blogId, timestamp.longValue()));
+                        }
+                        return null;
+                    }
+                }));
+    }
+
+    /**
+     * 取消大V标记：发件箱中的笔记(包括刚发布的)推送到所有粉丝的收件箱，再从feed:big-authors中移除
+     * 推送失败时保留标记，下次发布时重试
+     */
+    private void demoteBigAuthor(Long authorId) {
+        Set<ZSetOperations.TypedTuple<String>> outbox =
+                stringRedisTemplate.opsForZSet().reverseRangeWithScores(FEED_OUTBOX_KEY + authorId, 0, inboxMaxSize - 1);
+        if (outbox != null && !outbox.isEmpty()) {
+            Map<String, Double> blogs = new HashMap<>(outbox.size());
+            outbox.forEach(tuple -> blogs.put(tuple.getValue(), tuple.getScore()));
+            fanOut(authorId, blogs);
+        }
+        stringRedisTemplate.opsForSet().remove(FEED_BIG_AUTHOR_KEY, authorId.toString());
+        log.info("作者{}的粉丝数低于{}，取消大V标记", authorId, bigAuthorThreshold);
+    }
+
+    private void addToFeed(RedisOperations<String, String> operations, String key, String blogId, long timestamp) {
+        operations.opsForZSet().add(key, blogId, timestamp);
+        // 只保留最新的inboxMaxSize条
+        operations.opsForZSet().removeRange(key, 0, -(inboxMaxSize + 1));
+    }
+
     @Override
     public Result queryBlogOfFollow(Long max, Integer offset) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询收件箱 ZREVRANGEBYSCORE key Max Min LIMIT offset count
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
-        // 3.非空判断
-        if (typedTuples == null || typedTuples.isEmpty()) {
+        // 2.需要读取的来源：自己的收件箱 + 关注的大V的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        // SINTER follows:<userId> feed:big-authors
+        followService.queryFollowedAmong(userId, FEED_BIG_AUTHOR_KEY)
+                .forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+        // 3.每个来源取前offset+count条 ZREVRANGEBYSCORE key Max Min LIMIT 0 offset+count，一次pipeline
+        int limit = offset + FEED_PAGE_SIZE;
+        List<Object> sources = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (String key : keys) {
+                    operations.opsForZSet().reverseRangeByScoreWithScores(key, 0, max, 0, limit);
+                }
+                return null;
+            }
+        });
+        // 4.按时间戳多路归并、去重，跳过offset条
+        List<ZSetOperations.TypedTuple<String>> typedTuples = mergeFeeds(sources, limit);
+        typedTuples = typedTuples.subList(Math.min(offset, typedTuples.size()), typedTuples.size());
+        // 5.非空判断
+        if (typedTuples.isEmpty()) {
             return Result.ok();
         }
-        // 4.解析数据：blogId、minTime（时间戳）、offset
+        // 6.解析数据：blogId、minTime（时间戳）、offset
         List<Long> ids = new ArrayList<>(typedTuples.size());
         long minTime = 0; // 2
         int os = 1; // 2
         for (ZSetOperations.TypedTuple<String> tuple : typedTuples) { // 5 4 4 2 2
-            // 4.1.获取id
+            // 6.1.获取id
             ids.add(Long.valueOf(tuple.getValue()));
-            // 4.2.获取分数(时间戳）
+            // 6.2.获取分数(时间戳）
             long time = tuple.getScore().longValue();
             if(time == minTime){
                 os++;
@@ -155,18 +575,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             }
         }
 
-        // 5.根据id查询blog
+        // 7.根据id查询blog
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
 
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            isBlogLiked(blog);
-        }
+        // 7.1.批量查询blog有关的用户和是否被点赞
+        queryBlogsUserAndLiked(blogs);
 
-        // 6.封装并返回
+        // 8.封装并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
         r.setOffset(os);
@@ -174,7 +590,132 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         return Result.ok(r);}
 
+    /**
+     * k路归并：每个来源已经按时间戳倒序，用优先队列依次取出最新的一条，同一篇笔记只保留一次
+     */
+    @SuppressWarnings("unchecked")
+    private static List<ZSetOperations.TypedTuple<String>> mergeFeeds(List<Object> sources, int limit) {
+        PriorityQueue<PeekingIterator> heap = new PriorityQueue<>(
+                Math.max(1, sources.size()), (a, b) -> FEED_ORDER.compare(a.peek(), b.peek()));
+        for (Object source : sources) {
+            if (source instanceof Set && !((Set<?>) source).isEmpty()) {
+                heap.add(new PeekingIterator(((Set<ZSetOperations.TypedTuple<String>>) source).iterator()));
+            }
+        }
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>(limit);
+        Set<String> seen = new HashSet<>();
+        while (!heap.isEmpty() && merged.size() < limit) {
+            PeekingIterator it = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = it.next();
+            if (seen.add(tuple.getValue())) {
+                merged.add(tuple);
+            }
+            if (it.hasNext()) {
+                heap.add(it);
+            }
+        }
+        return merged;
+    }
+
+    private static class PeekingIterator {
+        private final Iterator<ZSetOperations.TypedTuple<String>> iterator;
+        private ZSetOperations.TypedTuple<String> head;
+
+        private PeekingIterator(Iterator<ZSetOperations.TypedTuple<String>> iterator) {
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+
+        private ZSetOperations.TypedTuple<String> peek() {
+            return head;
+        }
+
+        private ZSetOperations.TypedTuple<String> next() {
+            ZSetOperations.TypedTuple<String> current = head;
+            head = iterator.hasNext() ? iterator.next() : null;
+            return current;
+        }
+
+        private boolean hasNext() {
+            return head != null;
+        }
+    }
+
     private void queryBlogUser(Blog blog) {
+        UserDTO user = cacheClient.queryWithPassThrough(CACHE_USER_KEY, blog.getUserId(), UserDTO.class,
+                this::queryUserDTO, CACHE_USER_TTL, TimeUnit.MINUTES);
+        if (user != null) {
+            blog.setName(user.getNickName());
+            blog.setIcon(user.getIcon());
+        }
+    }
+
+    /**
+     * 批量填充博文的作者信息和点赞状态，作者一次MGET，点赞状态一次pipeline
+     */
+    private void queryBlogsUserAndLiked(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        //1.批量查询作者
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = cacheClient.queryBatchWithPassThrough(CACHE_USER_KEY, userIds, UserDTO.class,
+                this::queryUserDTOs, CACHE_USER_TTL, TimeUnit.MINUTES);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+        //2.批量查询点赞数和是否点赞
+        queryBlogsLiked(blogs);
+    }
+
+    /**
+     * 一次pipeline查询点赞数和当前用户是否点赞，未登录时只查点赞数
+     */
+    private void queryBlogsLiked(List<Blog> blogs) {
+        UserDTO me = UserHolder.getUser();
+        String userId = me == null ? null : me.getId().toString();
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (Blog blog : blogs) {
+                    operations.opsForValue().get(BLOG_LIKED_COUNT_KEY + blog.getId());
+                    if (userId != null) {
+                        operations.opsForSet().isMember(BLOG_LIKED_KEY + blog.getId(), userId);
+                    }
+                }
+                return null;
+            }
+        });
+        int step = userId == null ? 1 : 2;
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            // 点赞数以redis为准，还没有计数时使用数据库中的值
+            Object count = results.get(i * step);
+            if (count != null) {
+                blog.setLiked(Integer.valueOf(count.toString()));
+            }
+            if (userId != null) {
+                blog.setIsLike(BooleanUtil.isTrue((Boolean) results.get(i * step + 1)));
+            }
+        }
+    }
+
+    /**
+     * 用户不存在时返回null，缓存空值；BeanUtil.copyProperties(null, ...)会返回空对象而不是null
+     */
+    private UserDTO queryUserDTO(Long id) {
+        User user = userService.getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    private Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        return userService.listByIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class)));
     }
 }
 
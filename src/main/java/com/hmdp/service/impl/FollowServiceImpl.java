@@ -1,45 +1,107 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.BooleanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FANS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_BUILT_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_REBUILD_UNFOLLOWS_KEY;
+import static com.hmdp.utils.SystemConstants.DEFAULT_BATCH_SIZE;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 关注关系同时保存在redis：follows:<userId>是关注的人，fans:<userId>是粉丝
+ * 集合在数据库事务提交后更新，follow:built标记存在之前(首次启动、redis重启)读取时查询数据库
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IUserService userService;
+
+    private static final DefaultRedisScript<Long> UNFOLLOW_SCRIPT;
+    static {
+        UNFOLLOW_SCRIPT = new DefaultRedisScript<>();
+        UNFOLLOW_SCRIPT.setLocation(new ClassPathResource("unfollow.lua"));
+        UNFOLLOW_SCRIPT.setResultType(Long.class);
+    }
+
     @Override
+    @Transactional
     public Result follow(Long id, Boolean isFollow) {
         //获取登录用户
         Long userId = UserHolder.getUser().getId();
+        if (userId.equals(id)) {
+            return Result.fail("不能关注自己");
+        }
         //1.判断是关注还是取关
         if(isFollow){
-            //2.关注，新增数据
+            //2.关注，已经关注的不重复新增
+            if (isFollowing(userId, id)) {
+                return Result.ok();
+            }
             Follow follow=new Follow();
             follow.setUserId(userId);
-            follow.setUserId(id);
-            save(follow);
+            follow.setFollowUserId(id);
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                // 并发的重复关注被唯一索引拦截，由先提交的请求更新集合
+                return Result.ok();
+            }
         }
         else{
-            //3.取关 删除 delete from tb_follow where userId=? and follow_user_id=?
+            //3.取关 删除 delete from tb_follow where user_id=? and follow_user_id=?
             LambdaQueryWrapper<Follow> lambdaQueryWrapper=new LambdaQueryWrapper<>();
-            lambdaQueryWrapper.eq(Follow::getId,userId).eq(Follow::getUserId,id);
-            remove(lambdaQueryWrapper);
+            lambdaQueryWrapper.eq(Follow::getUserId,userId).eq(Follow::getFollowUserId,id);
+            if (!remove(lambdaQueryWrapper)) {
+                return Result.ok();
+            }
         }
-
-
+        //4.事务提交后更新双方的集合，回滚时不更新
+        afterCommit(() -> updateFollowSets(userId, id, isFollow));
         return Result.ok();
     }
 
@@ -47,10 +109,283 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result isFollow(Long id) {
         //获取登录用户
         Long userId = UserHolder.getUser().getId();
-        //1.查询是否关注 select count(*)  from tb_follow where userId=? and follow_user_id=?
+        return Result.ok(isFollowing(userId, id));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Result followCommons(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        //1.求两人关注的人的交集 SINTER follows:<userId> follows:<id>
+        Set<String> common = (Set<String>) readIfBuilt(
+                operations -> operations.opsForSet().intersect(FOLLOWS_KEY + userId, FOLLOWS_KEY + id));
+        List<Long> ids;
+        if (common != null) {
+            ids = common.stream().map(Long::valueOf).collect(Collectors.toList());
+        } else {
+            // 集合还没建好，查询数据库
+            ids = queryFollowIds(userId);
+            ids.retainAll(queryFollowIds(id));
+        }
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        //2.查询用户
+        List<UserDTO> users = userService.listByIds(ids).stream()
+                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                .collect(Collectors.toList());
+        return Result.ok(users);
+    }
+
+    @Override
+    public long countFans(Long userId) {
+        Long size = (Long) readIfBuilt(operations -> operations.opsForSet().size(FANS_KEY + userId));
+        if (size != null) {
+            return size;
+        }
+        // select count(*) from tb_follow where follow_user_id = ?
+        return query().eq("follow_user_id", userId).count();
+    }
+
+    @Override
+    public void forEachFanBatch(Long userId, int batchSize, Consumer<List<Long>> action) {
+        if (isFollowSetsBuilt()) {
+            //1.SSCAN粉丝集合，每凑满一批处理一次
+            ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+            List<Long> batch = new ArrayList<>(batchSize);
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(FANS_KEY + userId, options)) {
+                while (cursor.hasNext()) {
+                    batch.add(Long.valueOf(cursor.next()));
+                    if (batch.size() >= batchSize) {
+                        action.accept(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("关闭SSCAN游标失败", e);
+            }
+            if (!batch.isEmpty()) {
+                action.accept(batch);
+            }
+            return;
+        }
+        //2.集合还没建好，按id分批查询 select id, user_id from tb_follow where follow_user_id = ? and id > ? order by id limit n
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", userId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + batchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                return;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+            action.accept(follows.stream().map(Follow::getUserId).collect(Collectors.toList()));
+            if (follows.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Long> queryFollowedAmong(Long userId, String candidatesKey) {
+        //1.SINTER follows:<userId> candidatesKey
+        Set<String> followed = (Set<String>) readIfBuilt(
+                operations -> operations.opsForSet().intersect(FOLLOWS_KEY + userId, candidatesKey));
+        if (followed != null) {
+            return followed.stream().map(Long::valueOf).collect(Collectors.toList());
+        }
+        //2.集合还没建好，用候选集合查询数据库
+        Set<String> candidates = stringRedisTemplate.opsForSet().members(candidatesKey);
+        if (candidates == null || candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .in("follow_user_id", candidates)
+                .list()
+                .stream().map(Follow::getFollowUserId).collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean isFollowSetsBuilt() {
+        return BooleanUtil.isTrue(stringRedisTemplate.hasKey(FOLLOW_BUILT_KEY));
+    }
+
+    /**
+     * 重建期间提交的关注、取关同样会更新集合
+     * 取关的行可能在取关之前已经被本批读到，随后又被重建加回集合；标记不存在期间的取关记录在
+     * follow:rebuild:unfollows中，写入标记之前逐条按数据库修正
+     */
+    @Override
+    public void rebuildFollowSets() {
+        long begin = System.currentTimeMillis();
+        //1.删除旧的集合，其中可能有更新失败留下的数据，标记不存在期间读取都查询数据库
+        stringRedisTemplate.delete(Arrays.asList(FOLLOW_BUILT_KEY, FOLLOW_REBUILD_UNFOLLOWS_KEY));
+        deleteKeys(FOLLOWS_KEY + "*");
+        deleteKeys(FANS_KEY + "*");
+        //2.按主键分批读取关注关系，每批一次pipeline写入双方的集合
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            List<Follow> follows = query()
+                    .select("id", "user_id", "follow_user_id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + DEFAULT_BATCH_SIZE)
+                    .list();
+            if (follows.isEmpty()) {
+                break;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) {
+                    for (Follow follow : follows) {
+                        operations.opsForSet().add(FOLLOWS_KEY + follow.getUserId(), follow.getFollowUserId().toString());
+                        operations.opsForSet().add(FANS_KEY + follow.getFollowUserId(), follow.getUserId().toString());
+                    }
+                    return null;
+                }
+            });
+            total += follows.size();
+        }
+        //3.修正重建期间取关的关系，此后的取关直接从集合中移除，不会再被重建加回
+        int corrected = correctUnfollows();
+        //4.写入标记，开始读取集合
+        stringRedisTemplate.opsForValue().set(FOLLOW_BUILT_KEY, "1");
+        stringRedisTemplate.delete(FOLLOW_REBUILD_UNFOLLOWS_KEY);
+        log.info("关注集合重建完成，共{}条关注关系，修正{}条重建期间的取关，耗时{}ms",
+                total, corrected, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 重建期间取关的关系按数据库的当前状态写入集合，取关后又重新关注的保留
+     */
+    private int correctUnfollows() {
+        Set<String> unfollows = stringRedisTemplate.opsForSet().members(FOLLOW_REBUILD_UNFOLLOWS_KEY);
+        if (unfollows == null || unfollows.isEmpty()) {
+            return 0;
+        }
+        for (String unfollow : unfollows) {
+            String[] ids = unfollow.split(":");
+            Long userId = Long.valueOf(ids[0]);
+            Long followUserId = Long.valueOf(ids[1]);
+            boolean following = query().eq("user_id", userId).eq("follow_user_id", followUserId).count() > 0;
+            updateFollowSets(userId, followUserId, following);
+        }
+        return unfollows.size();
+    }
+
+    private boolean isFollowing(Long userId, Long id) {
+        //1.查询集合 SISMEMBER follows:<userId> id
+        Boolean member = (Boolean) readIfBuilt(
+                operations -> operations.opsForSet().isMember(FOLLOWS_KEY + userId, id.toString()));
+        if (member != null) {
+            return member;
+        }
+        //2.集合还没建好，查询是否关注 select count(*) from tb_follow where user_id=? and follow_user_id=?
         Integer count = query().eq("user_id", userId).eq("follow_user_id", id).count();
-        //判断
-        return Result.ok(count>0);
+        return count > 0;
+    }
+
+    private void deleteKeys(String pattern) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(DEFAULT_BATCH_SIZE).build();
+        List<String> keys = new ArrayList<>(DEFAULT_BATCH_SIZE);
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            while (cursor != null && cursor.hasNext()) {
+                keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                if (keys.size() >= DEFAULT_BATCH_SIZE) {
+                    stringRedisTemplate.delete(keys);
+                    keys.clear();
+                }
+            }
+        } catch (IOException e) {
+            log.error("关闭SCAN游标失败", e);
+        }
+        if (!keys.isEmpty()) {
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    private List<Long> queryFollowIds(Long userId) {
+        return query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream().map(Follow::getFollowUserId).collect(Collectors.toList());
+    }
 
+    /**
+     * 在一次pipeline中检查标记并执行读取，不增加往返
+     * @param command 只能执行一条命令
+     * @return 集合还没建好时返回null，调用方查询数据库
+     */
+    private Object readIfBuilt(Consumer<RedisOperations<String, String>> command) {
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                operations.hasKey(FOLLOW_BUILT_KEY);
+                command.accept(operations);
+                return null;
+            }
+        });
+        return BooleanUtil.isTrue((Boolean) results.get(0)) ? results.get(1) : null;
+    }
+
+    /**
+     * 关注用MULTI同时更新双方的集合，取关用脚本在移除的同时检查是否正在重建
+     */
+    private void updateFollowSets(Long userId, Long id, boolean follow) {
+        try {
+            if (!follow) {
+                stringRedisTemplate.execute(UNFOLLOW_SCRIPT,
+                        Arrays.asList(FOLLOWS_KEY + userId, FANS_KEY + id, FOLLOW_BUILT_KEY, FOLLOW_REBUILD_UNFOLLOWS_KEY),
+                        id.toString(), userId.toString());
+                return;
+            }
+            stringRedisTemplate.execute(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) {
+                    operations.multi();
+                    operations.opsForSet().add(FOLLOWS_KEY + userId, id.toString());
+                    operations.opsForSet().add(FANS_KEY + id, userId.toString());
+                    return operations.exec();
+                }
+            });
+        } catch (Exception e) {
+            // 数据库已经提交，集合与数据库不一致，删除标记改为查询数据库，由定时任务重建
+            log.error("更新关注集合失败，userId：{}，followUserId：{}", userId, id, e);
+            try {
+                stringRedisTemplate.delete(FOLLOW_BUILT_KEY);
+            } catch (Exception ignored) {
+                // redis不可用时读取同样会失败
+            }
+        }
+    }
+
+    /**
+     * 在事务提交后执行，没有事务时立即执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
@@ -4,8 +4,32 @@ import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -17,4 +41,90 @@ import org.springframework.stereotype.Service;
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Override
+    public void loadStock(SeckillVoucher voucher) {
+        loadStocks(Collections.singletonList(voucher));
+    }
+
+    @Override
+    public void loadStocks(Collection<SeckillVoucher> vouchers) {
+        if (vouchers.isEmpty()) {
+            return;
+        }
+        //1.先统计stream中还没有落库的订单，再由调用方查出的数据库库存扣除
+        // 调用方的查询可能早于统计，期间落库的订单会被扣除两次，只会少卖不会超卖
+        Map<Long, Integer> unsaved = unsavedOrders();
+        //2.HSETNX：库存可能已经被其它节点写入并扣减过，不能覆盖
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                HashOperations<String, String, String> ops = operations.opsForHash();
+                for (SeckillVoucher voucher : vouchers) {
+                    String key = SECKILL_STOCK_KEY + voucher.getVoucherId();
+                    int stock = Math.max(0, voucher.getStock() - unsaved.getOrDefault(voucher.getVoucherId(), 0));
+                    ops.putIfAbsent(key, "stock", String.valueOf(stock));
+                    ops.putIfAbsent(key, "beginTime", String.valueOf(toEpochMilli(voucher.getBeginTime())));
+                    ops.putIfAbsent(key, "endTime", String.valueOf(toEpochMilli(voucher.getEndTime())));
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 按秒杀券统计stream中已经扣过redis库存、但还没有写入数据库的订单：
+     * 已投递未确认的(pending-list)和还没有投递给消费者组的
+     */
+    private Map<Long, Integer> unsavedOrders() {
+        Map<Long, Integer> unsaved = new HashMap<>();
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_ORDER_STREAM_KEY))) {
+            return unsaved;
+        }
+        //1.消费者组的投递位置，组还没有创建时会从头消费，stream中的订单都没有落库
+        StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream().groups(SECKILL_ORDER_STREAM_KEY).stream()
+                .filter(g -> SECKILL_ORDER_GROUP.equals(g.groupName()))
+                .findFirst().orElse(null);
+        RecordId lastDelivered = RecordId.of(group == null ? "0-0" : group.lastDeliveredId());
+        //2.pending-list中的订单
+        Set<String> pendingIds = new HashSet<>();
+        RecordId from = lastDelivered;
+        if (group != null && group.pendingCount() > 0) {
+            for (PendingMessage message : stringRedisTemplate.opsForStream()
+                    .pending(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, Range.unbounded(), group.pendingCount())) {
+                pendingIds.add(message.getIdAsString());
+                if (compare(message.getId(), from) < 0) {
+                    from = message.getId();
+                }
+            }
+        }
+        //3.从最早的pending订单开始读，已确认的跳过
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_STREAM_KEY, Range.rightUnbounded(Range.Bound.inclusive(from.getValue())));
+        if (records == null) {
+            return unsaved;
+        }
+        for (MapRecord<String, Object, Object> record : records) {
+            if (!pendingIds.contains(record.getId().getValue()) && compare(record.getId(), lastDelivered) <= 0) {
+                continue;
+            }
+            Object voucherId = record.getValue().get("voucherId");
+            if (voucherId != null) {
+                unsaved.merge(Long.valueOf(voucherId.toString()), 1, Integer::sum);
+            }
+        }
+        return unsaved;
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int result = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return result != 0 ? result : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
@@ -1,23 +1,45 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.apache.catalina.startup.RealmRuleSet;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
 
 /**
  * <p>
@@ -27,37 +49,25 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    @Resource
+    private CacheClient cacheClient;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisBloomFilter shopBloomFilter;
     @Override
     public Result queryById(Long id) {
-        //1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        //2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            //3.存在，直接返回反序列化结果
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return Result.ok(shop);
-        }
-        //更新：判断命中的是否是空值
-        if(shopJson!=null){
-            return Result.fail("店铺不存在");
-        }
-        //4.不存在，根据id从数据库查询
-        Shop shop = getById(id);
-        //5.数据库中也不存在，返回错误
-        if(shop==null){
-            //更新：将空值写入redis
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,"",CACHE_NULL_TTL,TimeUnit.MINUTES);
-            //返回错误信息
+        //解决缓存穿透，先查一级缓存，再查redis，都未命中时用布隆过滤器判断一定不存在的id，不查数据库
+        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES,
+                shopBloomFilter::mightContain);
+        if (shop == null) {
             return Result.fail("店铺不存在");
         }
-        //6.数据库中存在，写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(shop),30L, TimeUnit.MINUTES);
-        //7.返回
+        //返回
         return Result.ok(shop);
     }
 
@@ -68,10 +78,167 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id==null){
             return Result.fail("店铺id不能为空");
         }
+        //0.坐标或类型可能变化时，先查出旧数据用于更新GEO集合
+        boolean geoChanged = shop.getX() != null || shop.getY() != null || shop.getTypeId() != null;
+        Shop old = geoChanged ? getById(id) : null;
         //1.更新数据库
         updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2.删除缓存，并通知各节点失效一级缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
+        //3.更新GEO集合
+        if (old != null) {
+            updateShopGeo(old, shop);
+        }
         return Result.ok();
     }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        //1.写入数据库
+        save(shop);
+        shopBloomFilter.put(shop.getId());
+        //2.写入GEO集合
+        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(),
+                    new Point(shop.getX(), shop.getY()), shop.getId().toString());
+        }
+        //3.返回店铺id
+        return Result.ok(shop.getId());
+    }
+
+    private void updateShopGeo(Shop old, Shop shop) {
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        String member = old.getId().toString();
+        //1.类型变化，从旧的GEO集合中移除
+        boolean typeChanged = !Objects.equals(typeId, old.getTypeId());
+        if (typeChanged && old.getTypeId() != null) {
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), member);
+        }
+        //2.类型或坐标变化，写入新的GEO集合
+        boolean pointChanged = !Objects.equals(x, old.getX()) || !Objects.equals(y, old.getY());
+        if ((typeChanged || pointChanged) && typeId != null && x != null && y != null) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, new Point(x, y), member);
+        }
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        //1.判断是否需要根据坐标查询
+        if (x == null || y == null) {
+            // 不需要坐标查询，按数据库查询，不返回总数，不需要count查询
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            // 返回数据
+            return Result.ok(page.getRecords());
+        }
+        //2.计算分页参数
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        //3.查询redis、按照距离排序、分页。结果：shopId、distance
+        // GEORADIUS key x y 5000 m WITHDIST ASC COUNT end
+        String key = SHOP_GEO_KEY + typeId;
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                key,
+                new Circle(new Point(x, y), new Distance(SystemConstants.SHOP_GEO_RADIUS_METERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(end)
+        );
+        if (results == null) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
+        if (list.size() <= from) {
+            // 没有下一页了，结束
+            return Result.ok(Collections.emptyList());
+        }
+        //4.截取 from ~ end的部分
+        List<Long> ids = new ArrayList<>(list.size() - from);
+        Map<Long, Distance> distanceMap = new HashMap<>(list.size() - from);
+        list.stream().skip(from).forEach(result -> {
+            // 4.1.获取店铺id
+            Long shopId = Long.valueOf(result.getContent().getName());
+            ids.add(shopId);
+            // 4.2.获取距离
+            distanceMap.put(shopId, result.getDistance());
+        });
+        //5.根据id批量查询Shop
+        Map<Long, Shop> shopMap = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                this::queryShopMap, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(shopMap.size());
+        for (Shop cached : shopMap.values()) {
+            // 缓存中的对象可能被一级缓存共享，复制后再设置距离
+            Shop shop = BeanUtil.copyProperties(cached, Shop.class);
+            shop.setDistance(distanceMap.get(shop.getId()).getValue());
+            shops.add(shop);
+        }
+        //6.返回
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result queryShopByTypeCursor(Integer typeId, Long lastId) {
+        // WHERE type_id = ? AND id > lastId ORDER BY id LIMIT size+1，走type_id索引，不随页数变慢
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + (SystemConstants.DEFAULT_PAGE_SIZE + 1))
+                .list();
+        return Result.ok(CursorResult.of(shops, SystemConstants.DEFAULT_PAGE_SIZE, null, Shop::getId));
+    }
+
+    @Override
+    public Result queryShopByNameCursor(String name, Long lastId) {
+        List<Shop> shops = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        return Result.ok(CursorResult.of(shops, SystemConstants.MAX_PAGE_SIZE, null, Shop::getId));
+    }
+
+    private Map<Long, Shop> queryShopMap(Collection<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+    }
+
+    @Override
+    @PostConstruct
+    public void loadShopGeo() {
+        try {
+            //1.按id分批查询店铺坐标
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                List<Shop> shops = query()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SystemConstants.DEFAULT_BATCH_SIZE)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+                //2.按照类型分组，每个类型一次GEOADD
+                Map<Long, List<Shop>> byType = shops.stream()
+                        .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                        .collect(Collectors.groupingBy(Shop::getTypeId));
+                for (Map.Entry<Long, List<Shop>> entry : byType.entrySet()) {
+                    List<RedisGeoCommands.GeoLocation<String>> locations = entry.getValue().stream()
+                            .map(shop -> new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())))
+                            .collect(Collectors.toList());
+                    // GEOADD key 经度 纬度 member
+                    stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + entry.getKey(), locations);
+                }
+                total += shops.size();
+            }
+            log.info("店铺GEO集合加载完成，共{}家店铺", total);
+        } catch (Exception e) {
+            // 加载失败不影响启动，坐标查询会返回空列表
+            log.error("店铺GEO集合加载失败", e);
+        }
+    }
 }
@@ -1,10 +1,33 @@
 package com.hmdp.service.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.extension.conditions.update.LambdaUpdateChainWrapper;
+import com.baomidou.mybatisplus.extension.conditions.update.UpdateChainWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
 
 /**
  * <p>
@@ -14,7 +37,188 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    /**
+     * 使用spring mvc同一个ObjectMapper序列化，输出与直接返回Result一致
+     */
+    @Resource
+    private ObjectMapper objectMapper;
+
+    /**
+     * 本地副本最多这么久向redis确认一次版本号
+     */
+    @Value("${hmdp.shop-type.version-check-ms:1000}")
+    private long versionCheckMillis;
+
+    private volatile TypeList local;
+
+    @Override
+    public byte[] queryTypeListJson() {
+        //1.本地副本在检查间隔内，直接返回
+        TypeList current = local;
+        long now = System.currentTimeMillis();
+        if (current != null && now - current.checkedAt < versionCheckMillis) {
+            return current.body;
+        }
+        //2.查询版本号，版本号未变化，延长本地副本的检查时间
+        long version = currentVersion();
+        if (current != null && current.version == version) {
+            local = new TypeList(version, current.body, now);
+            return current.body;
+        }
+        //3.版本号变化，重新加载
+        return reload(version, now).body;
+    }
+
+    /**
+     * 同一进程只有一个线程加载，其它线程等待后直接使用它的结果
+     */
+    private synchronized TypeList reload(long version, long now) {
+        TypeList current = local;
+        if (current != null && current.version == version) {
+            return current;
+        }
+        //1.查询redis中该版本的json
+        String key = CACHE_SHOP_TYPE_KEY + version;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        //2.不存在，查询数据库并写入redis。key中带版本号，旧版本的读者不会覆盖新版本
+        if (json == null) {
+            json = serialize(Result.ok(listSorted()));
+            stringRedisTemplate.opsForValue().set(key, json, CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        }
+        //3.更新本地副本
+        TypeList loaded = new TypeList(version, json.getBytes(StandardCharsets.UTF_8), now);
+        local = loaded;
+        return loaded;
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return version == null ? 0L : Long.parseLong(version);
+    }
+
+    private String serialize(Result result) {
+        try {
+            return objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("店铺类型序列化失败", e);
+        }
+    }
+
+    @Override
+    public void bumpVersion() {
+        // 各节点最多在versionCheckMillis后看到新版本，旧版本的json随TTL过期
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        log.debug("店铺类型版本号更新为{}", version);
+    }
+
+    @Override
+    public List<ShopType> listSorted() {
+        return query().orderByAsc("sort").list();
+    }
+
+    /*
+     * 所有写操作成功后在事务提交后更新版本号：提交前更新，其它节点可能用旧数据生成新版本的json；
+     * saveOrUpdate(entity)和update(wrapper)委托给下面的方法，链式的update()/lambdaUpdate()绕过service直接调用mapper，不允许使用
+     */
+
+    @Override
+    public boolean save(ShopType entity) {
+        return bumpVersionIf(super.save(entity));
+    }
+
+    @Override
+    public boolean saveBatch(Collection<ShopType> entityList, int batchSize) {
+        return bumpVersionIf(super.saveBatch(entityList, batchSize));
+    }
+
+    @Override
+    public boolean saveOrUpdateBatch(Collection<ShopType> entityList, int batchSize) {
+        return bumpVersionIf(super.saveOrUpdateBatch(entityList, batchSize));
+    }
+
+    @Override
+    public boolean updateById(ShopType entity) {
+        return bumpVersionIf(super.updateById(entity));
+    }
+
+    @Override
+    public boolean update(ShopType entity, Wrapper<ShopType> updateWrapper) {
+        return bumpVersionIf(super.update(entity, updateWrapper));
+    }
+
+    @Override
+    public boolean updateBatchById(Collection<ShopType> entityList, int batchSize) {
+        return bumpVersionIf(super.updateBatchById(entityList, batchSize));
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        return bumpVersionIf(super.removeById(id));
+    }
+
+    @Override
+    public boolean removeByIds(Collection<? extends Serializable> idList) {
+        return bumpVersionIf(super.removeByIds(idList));
+    }
+
+    @Override
+    public boolean removeByMap(Map<String, Object> columnMap) {
+        return bumpVersionIf(super.removeByMap(columnMap));
+    }
+
+    @Override
+    public boolean remove(Wrapper<ShopType> queryWrapper) {
+        return bumpVersionIf(super.remove(queryWrapper));
+    }
+
+    @Override
+    public UpdateChainWrapper<ShopType> update() {
+        throw new UnsupportedOperationException("店铺类型请使用update(entity, wrapper)修改，以便更新版本号");
+    }
+
+    @Override
+    public LambdaUpdateChainWrapper<ShopType> lambdaUpdate() {
+        throw new UnsupportedOperationException("店铺类型请使用update(entity, wrapper)修改，以便更新版本号");
+    }
+
+    /**
+     * 修改了数据时，在事务提交后更新版本号，没有事务时立即更新
+     */
+    private boolean bumpVersionIf(boolean changed) {
+        if (!changed) {
+            return false;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bumpVersion();
+            return true;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                bumpVersion();
+            }
+        });
+        return true;
+    }
+
+    private static final class TypeList {
+        private final long version;
+        /**
+         * 序列化好的响应体
+         */
+        private final byte[] body;
+        private final long checkedAt;
+
+        private TypeList(long version, byte[] body, long checkedAt) {
+            this.version = version;
+            this.body = body;
+            this.checkedAt = checkedAt;
+        }
+    }
 }
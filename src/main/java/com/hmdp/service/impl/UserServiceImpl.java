@@ -2,34 +2,51 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SignStats;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.SIGN_CALENDAR_MONTHS;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 
 /**
@@ -46,6 +63,20 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private RedisBloomFilter userBloomFilter;
+
+    private static final DateTimeFormatter SIGN_KEY_SUFFIX = DateTimeFormatter.ofPattern(":yyyyMM");
+    private static final DateTimeFormatter SIGN_MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    private static final DefaultRedisScript<Long> SIGN_STATS_SCRIPT;
+    static {
+        SIGN_STATS_SCRIPT = new DefaultRedisScript<>();
+        SIGN_STATS_SCRIPT.setLocation(new ClassPathResource("sign_stats.lua"));
+        SIGN_STATS_SCRIPT.setResultType(Long.class);
+    }
     /**
      * 发送验证码
      * @param phone
@@ -111,61 +142,168 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok();
     }
 
+    @Override
+    public Result logout(String token) {
+        //1.删除redis中的token
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        //2.失效本节点的会话缓存，并通知其它节点
+        loginSessionCache.invalidateAll(token);
+        return Result.ok();
+    }
+
     @Override
     public Result sign() {
         //1.获取当前登录的用户
         Long id = UserHolder.getUser().getId();
         //2.获取日期
-        LocalDateTime now = LocalDateTime.now();
+        LocalDate now = LocalDate.now();
         //3.拼接key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern(":yyyyMM"));
-        String key=USER_SIGN_KEY+id+keySuffix;
+        String key = USER_SIGN_KEY + id + now.format(SIGN_KEY_SUFFIX);
         //4.获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth()-1;
-        //5.写入redis  的 SETBIT key offset 1
-        stringRedisTemplate.opsForValue().setBit(key,dayOfMonth,true);
+        int dayOfMonth = now.getDayOfMonth() - 1;
+        //5.写入redis 的 SETBIT key offset 1，返回原来的值
+        Boolean signed = stringRedisTemplate.opsForValue().setBit(key, dayOfMonth, true);
+        //6.今天第一次签到，缓存的统计已经过时
+        if (!BooleanUtil.isTrue(signed)) {
+            stringRedisTemplate.delete(USER_SIGN_STATS_KEY + id);
+        }
         return Result.ok();
-
     }
 
     @Override
     public Result signCount() {
-        //1.获取当前登录的用户
-        Long id = UserHolder.getUser().getId();
-        //2.获取日期
-        LocalDateTime now = LocalDateTime.now();
-        //3.拼接key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern(":yyyyMM"));
-        String key=USER_SIGN_KEY+id+keySuffix;
-        //4.获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth()-1;
-        //5.获取本月截止今天的所有签到记录，返回的是一个十进制的数字
-        List<Long> result = stringRedisTemplate.opsForValue().bitField(key, BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(dayOfMonth + 1)).valueAt(0));
-        if(result==null||result.isEmpty()){
-            //没有签到结果
-            return Result.ok(0);
+        return Result.ok(querySignStats(UserHolder.getUser().getId()).getStreak());
+    }
+
+    @Override
+    public Result signStats() {
+        return Result.ok(querySignStats(UserHolder.getUser().getId()));
+    }
+
+    /**
+     * 统计结果缓存到下一次签到，最多到今天结束
+     */
+    private SignStats querySignStats(Long userId) {
+        String statsKey = USER_SIGN_STATS_KEY + userId;
+        //1.查询缓存
+        String json = stringRedisTemplate.opsForValue().get(statsKey);
+        if (StrUtil.isNotBlank(json)) {
+            return JSONUtil.toBean(json, SignStats.class);
         }
-        Long num = result.get(0);
-        if(num==null||num==0){
-            return Result.ok(0);
+        //2.一次pipeline读取最近12个月的签到记录，本月只读到今天
+        LocalDate today = LocalDate.now();
+        YearMonth thisMonth = YearMonth.from(today);
+        long[] bits = readSignBits(userId, thisMonth, today.getDayOfMonth(), SIGN_CALENDAR_MONTHS);
+        long thisMonthBits = bits[0];
+        //3.逐月生成日历
+        List<SignStats.Month> months = new ArrayList<>(SIGN_CALENDAR_MONTHS);
+        int total = 0;
+        for (int i = 0; i < SIGN_CALENDAR_MONTHS; i++) {
+            YearMonth month = thisMonth.minusMonths(i);
+            int length = i == 0 ? today.getDayOfMonth() : month.lengthOfMonth();
+            SignStats.Month m = new SignStats.Month();
+            m.setMonth(month.format(SIGN_MONTH));
+            m.setCount(Long.bitCount(bits[i]));
+            m.setDays(signedDays(bits[i], length));
+            months.add(m);
+            total += m.getCount();
         }
-        //6.循环遍历
-        int count=0;
-        while (true){
-            //6.1.让这个数字与1做与运算，得到数字的最后一个bit位 //6.2判断这个bit是否为0
-            if((num&1)==0){
-                //6.3如果为0，说明未签到，结束
+        //4.计算连续签到天数，整个窗口都连续签到时继续读取更早的月份
+        int streak = 0;
+        YearMonth from = thisMonth;
+        int fromLength = today.getDayOfMonth();
+        while (true) {
+            int run = streakOf(bits, from, fromLength);
+            streak += run;
+            if (run < daysOf(from, fromLength, bits.length)) {
                 break;
             }
-            else {
-                //6.4如果不为零，说明已签到，计数器+1
-                count++;
+            from = from.minusMonths(bits.length);
+            fromLength = from.lengthOfMonth();
+            bits = readSignBits(userId, from, fromLength, SIGN_CALENDAR_MONTHS);
+        }
+        SignStats stats = new SignStats();
+        stats.setStreak(streak);
+        stats.setTotal(total);
+        stats.setMonths(months);
+        //5.写入缓存，过了今天连续签到天数和本月的日历都会变化
+        // 读取之后、写入之前的签到已经删过缓存，直接SET会把过时的结果留到今天结束，只有本月记录没有变化时才写入
+        long ttl = Duration.between(LocalDateTime.now(), today.plusDays(1).atStartOfDay()).getSeconds() + 1;
+        stringRedisTemplate.execute(SIGN_STATS_SCRIPT,
+                Arrays.asList(USER_SIGN_KEY + userId + thisMonth.format(SIGN_KEY_SUFFIX), statsKey),
+                String.valueOf(today.getDayOfMonth()), String.valueOf(thisMonthBits),
+                JSONUtil.toJsonStr(stats), String.valueOf(ttl));
+        return stats;
+    }
+
+    /**
+     * 从from开始往前读取months个月的签到记录，每个月一条BITFIELD GET，在一次pipeline中完成
+     * @param fromLength from这个月读取的天数
+     * @return 每个月的记录，第一天在最高位，最后一天在最低位
+     */
+    private long[] readSignBits(Long userId, YearMonth from, int fromLength, int months) {
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (int i = 0; i < months; i++) {
+                    YearMonth month = from.minusMonths(i);
+                    int length = i == 0 ? fromLength : month.lengthOfMonth();
+                    String key = USER_SIGN_KEY + userId + month.format(SIGN_KEY_SUFFIX);
+                    operations.opsForValue().bitField(key, BitFieldSubCommands.create()
+                            .get(BitFieldSubCommands.BitFieldType.unsigned(length)).valueAt(0));
+                }
+                return null;
+            }
+        });
+        long[] bits = new long[months];
+        for (int i = 0; i < months; i++) {
+            List<?> result = (List<?>) results.get(i);
+            Object value = result == null || result.isEmpty() ? null : result.get(0);
+            bits[i] = value == null ? 0 : ((Number) value).longValue();
+        }
+        return bits;
+    }
+
+    /**
+     * 从from往前逐月累加连续签到天数，遇到有未签到的月份为止
+     * @param bits readSignBits读取的记录
+     * @param fromLength from这个月读取的天数
+     */
+    static int streakOf(long[] bits, YearMonth from, int fromLength) {
+        int streak = 0;
+        for (int i = 0; i < bits.length; i++) {
+            int length = i == 0 ? fromLength : from.minusMonths(i).lengthOfMonth();
+            // 月末在最低位，末尾连续1的个数就是截止月末的连续签到天数
+            int run = Math.min(Long.numberOfTrailingZeros(~bits[i]), length);
+            streak += run;
+            if (run < length) {
+                break;
             }
+        }
+        return streak;
+    }
 
-            //6.5把最后一位右移一位，相当于抛弃最后一位，继续循环
-            num>>>=1;
+    /**
+     * 从from往前months个月的总天数，from这个月按fromLength计算
+     */
+    static int daysOf(YearMonth from, int fromLength, int months) {
+        int days = fromLength;
+        for (int i = 1; i < months; i++) {
+            days += from.minusMonths(i).lengthOfMonth();
+        }
+        return days;
+    }
+
+    /**
+     * 从最低位开始逐个取出为1的位，最低位对应最后一天
+     */
+    static List<Integer> signedDays(long bits, int length) {
+        LinkedList<Integer> days = new LinkedList<>();
+        for (long rest = bits; rest != 0; rest &= rest - 1) {
+            days.addFirst(length - Long.numberOfTrailingZeros(rest));
         }
-        return Result.ok(count);
+        return days;
     }
 
     private User createWithPhone(String phone){
@@ -174,8 +312,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX+RandomUtil.randomString(10));
 
-        //2.保存用户
+        //2.保存用户，并加入布隆过滤器
         save(user);
+        userBloomFilter.put(user.getId());
         return user;
     }
 }
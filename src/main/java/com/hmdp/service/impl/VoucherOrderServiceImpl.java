@@ -1,5 +1,8 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -9,11 +12,60 @@ import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_LETTER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -23,8 +75,8 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
-@Transactional
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
     /**
@@ -35,18 +87,177 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     @Resource
     private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${hmdp.seckill.async:false}")
+    private boolean async;
+
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.claim-idle-seconds:60}")
+    private long claimIdleSeconds;
+
+    @Value("${hmdp.seckill.max-deliveries:10}")
+    private long maxDeliveries;
+
+    /**
+     * 转入死信stream的原因
+     */
+    private static final String REASON_POISON = "poison";
+    private static final String REASON_STOCK_MISMATCH = "stock_mismatch";
+
+    /**
+     * pending-list处理失败后的重试间隔，从20ms开始翻倍，最多5秒
+     */
+    private static final long RETRY_BASE_MILLIS = 20;
+    private static final long RETRY_MAX_MILLIS = 5000;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private volatile boolean running;
+
+    /**
+     * 秒杀结果对应的指标标签，失败信息是固定的几种
+     */
+    private static final Map<String, String> SECKILL_OUTCOMES = new HashMap<>();
+    static {
+        SECKILL_OUTCOMES.put("库存不足", "sold_out");
+        SECKILL_OUTCOMES.put("不能重复下单", "duplicate");
+        SECKILL_OUTCOMES.put("秒杀尚未开始", "not_started");
+        SECKILL_OUTCOMES.put("秒杀已结束", "ended");
+        SECKILL_OUTCOMES.put("秒杀券不存在", "not_found");
+    }
+
+    /**
+     * 按结果缓存的耗时指标
+     */
+    private final Map<String, Timer> seckillTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> deadLetterCounters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        if (!async) {
+            return;
+        }
+        if (StrUtil.isBlank(consumerName)) {
+            consumerName = localHostName();
+        }
+        createGroupIfAbsent();
+        running = true;
+        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        SECKILL_ORDER_EXECUTOR.shutdown();
+        SECKILL_ORDER_EXECUTOR.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
     @Override
     public Result seckillVoucher(Long voucherId) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            Result result = async
+                    ? seckillVoucherAsync(voucherId)
+                    : transactionTemplate.execute(status -> seckillVoucherSync(voucherId));
+            outcome = result == null ? "error"
+                    : BooleanUtil.isTrue(result.getSuccess()) ? "success"
+                    : SECKILL_OUTCOMES.getOrDefault(result.getErrorMsg(), "fail");
+            return result;
+        } finally {
+            seckillTimer(outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer seckillTimer(String outcome) {
+        Timer timer = seckillTimers.get(outcome);
+        if (timer != null) {
+            return timer;
+        }
+        return seckillTimers.computeIfAbsent(outcome, o -> Timer.builder("seckill.requests")
+                .tag("mode", async ? "async" : "sync")
+                .tag("outcome", o)
+                .register(Metrics.globalRegistry));
+    }
+
+    /**
+     * 异步秒杀：库存和一人一单在redis中通过lua脚本原子完成，订单写入stream后立即返回
+     */
+    private Result seckillVoucherAsync(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        //1.订单id,利用唯一Id生成器
+        long orderId = redisIdWorker.nextId("order");
+        //2.执行lua脚本
+        int r = executeSeckillScript(voucherId, userId, orderId);
+        if (r == 4) {
+            //2.1.秒杀券还没有加载到redis，从数据库加载后重试一次
+            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+            if (voucher == null) {
+                return Result.fail("秒杀券不存在");
+            }
+            seckillVoucherService.loadStock(voucher);
+            r = executeSeckillScript(voucherId, userId, orderId);
+        }
+        //3.判断结果
+        switch (r) {
+            case 0:
+                //4.返回订单id
+                return Result.ok(orderId);
+            case 1:
+                return Result.fail("库存不足");
+            case 2:
+                return Result.fail("不能重复下单");
+            case 5:
+                return Result.fail("秒杀尚未开始");
+            case 6:
+                return Result.fail("秒杀已结束");
+            default:
+                return Result.fail("秒杀券不存在");
+        }
+    }
+
+    private int executeSeckillScript(Long voucherId, Long userId, long orderId) {
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM_KEY),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId), String.valueOf(System.currentTimeMillis())
+        );
+        return result == null ? -1 : result.intValue();
+    }
+
+    private Result seckillVoucherSync(Long voucherId) {
         //1.查询优惠券
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            return Result.fail("秒杀券不存在");
+        }
         //2.判断秒杀是否开始
         if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {//表示如果开始时间在现在时间之后，则未开始
             //尚未开始
             return Result.fail("秒杀尚未开始");
         }
         //3.判断秒杀是否结束
-        if (voucher.getBeginTime().isBefore(LocalDateTime.now())) {//表示如果开始时间在现在时间之前，则已结束
-            //尚未开始
+        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {//表示如果结束时间在现在时间之前，则已结束
+            //已经结束
             return Result.fail("秒杀已结束");
         }
         //4，判断库存是否充足
@@ -57,6 +268,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //5.更新：扣减库存
         boolean success = seckillVoucherService.update()
                 .setSql("stock=stock-1")//update执行的语句
+                .eq("voucher_id", voucherId)
                 .gt("stock", 0)//更新：只要库存大于零，其他线程就能修改
                 .update();
         if(!success){
@@ -79,4 +291,257 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(orderId);
 
     }
+
+    /**
+     * 从stream消费订单并批量写入数据库
+     */
+    private class VoucherOrderHandler implements Runnable {
+
+        private long lastClaimTime;
+
+        @Override
+        public void run() {
+            //0.启动时先处理本消费者上次宕机遗留在pending-list中的订单
+            handlePendingList();
+            while (running) {
+                try {
+                    //1.获取消息队列中的订单 XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    //2.判断消息是否获取成功
+                    if (list == null || list.isEmpty()) {
+                        //2.1.没有新消息，顺便认领其它宕机节点遗留的订单
+                        claimIdlePending();
+                        continue;
+                    }
+                    //3.批量落库并ACK
+                    handleRecords(list);
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                    handlePendingList();
+                }
+            }
+        }
+
+        /**
+         * 每次从pending-list读取都会增加消息的投递次数，达到上限的消息逐条重试，仍然失败的转入死信stream
+         * 一条无法处理的订单不会让后面的订单一直无法落库
+         */
+        private void handlePendingList() {
+            int failures = 0;
+            while (running) {
+                List<MapRecord<String, Object, Object>> list = null;
+                try {
+                    //1.获取pending-list中的订单 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders 0
+                    list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize),
+                            StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.from("0"))
+                    );
+                    //2.判断消息是否获取成功
+                    if (list == null || list.isEmpty()) {
+                        //2.1.pending-list没有异常消息，结束循环
+                        break;
+                    }
+                    //3.批量落库并ACK
+                    handleRecords(list);
+                    failures = 0;
+                } catch (Exception e) {
+                    log.error("处理pending-list订单异常", e);
+                    //4.投递次数达到上限的订单逐条处理
+                    if (list != null && !list.isEmpty()) {
+                        handleExhausted(list);
+                    }
+                    sleepQuietly(Math.min(RETRY_BASE_MILLIS << Math.min(failures++, 16), RETRY_MAX_MILLIS));
+                }
+            }
+        }
+
+        /**
+         * 找出投递次数达到上限的订单逐条重试，仍然失败的转入死信stream并ACK
+         * 数据库、redis不可用等基础设施故障不算无法处理，继续留在pending-list中重试
+         */
+        private void handleExhausted(List<MapRecord<String, Object, Object>> records) {
+            try {
+                //1.一次XPENDING查询这批消息的投递次数，records是按id顺序从本消费者的pending-list读取的
+                PendingMessages pending = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM_KEY,
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                        Range.closed(records.get(0).getId().getValue(), records.get(records.size() - 1).getId().getValue()),
+                        records.size());
+                Map<RecordId, Long> deliveries = new HashMap<>(records.size());
+                for (PendingMessage message : pending) {
+                    deliveries.put(message.getId(), message.getTotalDeliveryCount());
+                }
+                //2.逐条重试
+                for (MapRecord<String, Object, Object> record : records) {
+                    if (deliveries.getOrDefault(record.getId(), 0L) < maxDeliveries) {
+                        continue;
+                    }
+                    try {
+                        handleRecords(Collections.singletonList(record));
+                    } catch (Exception e) {
+                        if (isTransient(e)) {
+                            return;
+                        }
+                        log.error("订单投递{}次仍无法处理，转入死信stream：{}", maxDeliveries, record.getValue(), e);
+                        deadLetter(record, REASON_POISON, e.toString());
+                        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, record.getId());
+                    }
+                }
+            } catch (Exception e) {
+                log.error("处理投递次数超限的订单异常", e);
+            }
+        }
+
+        /**
+         * 把其它消费者长时间未ACK的订单认领到自己名下，再按pending-list处理
+         */
+        private void claimIdlePending() {
+            long now = System.currentTimeMillis();
+            if (now - lastClaimTime < TimeUnit.SECONDS.toMillis(claimIdleSeconds) / 2) {
+                return;
+            }
+            lastClaimTime = now;
+            Duration minIdle = Duration.ofSeconds(claimIdleSeconds);
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize);
+            List<RecordId> ids = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (!consumerName.equals(message.getConsumerName())
+                        && message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                    ids.add(message.getId());
+                }
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            byte[] key = SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8);
+            List<RecordId> claimed = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                    connection.xClaimJustId(key, SECKILL_ORDER_GROUP, consumerName,
+                            RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids)));
+            if (claimed != null && !claimed.isEmpty()) {
+                log.info("认领了{}条其它消费者未处理的订单", claimed.size());
+                handlePendingList();
+            }
+        }
+    }
+
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        //1.解析订单信息
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        Map<Long, MapRecord<String, Object, Object>> recordsByOrder = new LinkedHashMap<>(records.size());
+        RecordId[] ids = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, Object, Object> record = records.get(i);
+            VoucherOrder order = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            orders.add(order);
+            recordsByOrder.put(order.getId(), record);
+            ids[i] = record.getId();
+        }
+        //2.在一个事务中扣减库存并批量插入订单，返回库存扣减失败、没有插入的订单
+        List<VoucherOrder> rejected = transactionTemplate.execute(status -> saveOrders(orders));
+        //3.没有插入的订单转入死信stream，等待对账，写入成功后才ACK
+        if (rejected != null) {
+            for (VoucherOrder order : rejected) {
+                deadLetter(recordsByOrder.get(order.getId()), REASON_STOCK_MISMATCH, "数据库库存不足");
+            }
+        }
+        //4.确认消息 XACK
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, ids);
+    }
+
+    /**
+     * @return 数据库库存扣减失败、没有插入的订单
+     */
+    private List<VoucherOrder> saveOrders(List<VoucherOrder> orders) {
+        //1.过滤掉已经落库的订单，pending-list重试时保证幂等
+        Set<Long> saved = listByIds(orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> toSave = saved.isEmpty() ? orders : orders.stream()
+                .filter(order -> !saved.contains(order.getId())).collect(Collectors.toList());
+        if (toSave.isEmpty()) {
+            return Collections.emptyList();
+        }
+        //2.按优惠券汇总扣减库存，库存和一人一单已经在redis中校验过
+        Map<Long, Long> counts = toSave.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        Set<Long> failedVouchers = new HashSet<>();
+        counts.forEach((voucherId, count) -> {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+            if (!success) {
+                // 数据库库存与redis不一致，这张券的订单都不插入，避免超卖
+                log.error("秒杀券{}数据库库存与redis不一致，扣减{}失败，订单转入死信stream", voucherId, count);
+                failedVouchers.add(voucherId);
+            }
+        });
+        //3.批量插入库存扣减成功的订单
+        List<VoucherOrder> rejected = new ArrayList<>();
+        List<VoucherOrder> accepted = new ArrayList<>(toSave.size());
+        for (VoucherOrder order : toSave) {
+            (failedVouchers.contains(order.getVoucherId()) ? rejected : accepted).add(order);
+        }
+        if (!accepted.isEmpty()) {
+            saveBatch(accepted, batchSize);
+        }
+        return rejected;
+    }
+
+    /**
+     * 把无法落库的订单写入死信stream，保留原消息的字段，附加原消息id和原因，用于对账和人工重放
+     */
+    private void deadLetter(MapRecord<String, Object, Object> record, String reason, String error) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        record.getValue().forEach((k, v) -> fields.put(k.toString(), String.valueOf(v)));
+        fields.put("sourceId", record.getId().getValue());
+        fields.put("reason", reason);
+        fields.put("error", error);
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DEAD_LETTER_KEY, fields);
+        deadLetterCounters.computeIfAbsent(reason, r -> Counter.builder("seckill.orders.dead_letter")
+                .tag("reason", r)
+                .register(Metrics.globalRegistry)).increment();
+    }
+
+    /**
+     * 基础设施故障，恢复后可以重试成功
+     */
+    private static boolean isTransient(Throwable e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException;
+    }
+
+    private void createGroupIfAbsent() {
+        byte[] key = SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8);
+        try {
+            // XGROUP CREATE stream.orders g1 0 MKSTREAM
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.xGroupCreate(key, SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // 消费者组已存在(BUSYGROUP)
+            log.debug("消费者组{}已存在", SECKILL_ORDER_GROUP);
+        }
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "c-" + UUID.randomUUID();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
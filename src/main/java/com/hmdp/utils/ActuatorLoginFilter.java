@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * actuator端点由actuator自己的HandlerMapping处理，MvcConfig中注册的拦截器对它不生效，在过滤器中校验登录
+ * /actuator/health不需要登录，留给负载均衡和容器探活
+ */
+public class ActuatorLoginFilter extends OncePerRequestFilter {
+
+    private static final String HEALTH_PATH = "/actuator/health";
+
+    private final LoginSessionCache loginSessionCache;
+
+    public ActuatorLoginFilter(LoginSessionCache loginSessionCache) {
+        this.loginSessionCache = loginSessionCache;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.equals(HEALTH_PATH) || path.startsWith(HEALTH_PATH + "/")) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String token = request.getHeader("authorization");
+        if (StrUtil.isBlank(token) || loginSessionCache.get(token) == null) {
+            response.setStatus(401);
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+}
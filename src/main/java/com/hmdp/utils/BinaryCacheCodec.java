@@ -0,0 +1,198 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.extern.slf4j.Slf4j;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 二进制编码：自定义头 + smile(二进制JSON)，超过阈值的数据用lz4压缩
+ * 头部格式：
+ * 1字节 魔数，不可能是JSON的第一个字节，据此区分旧的JSON数据
+ * 1字节 格式版本
+ * 1字节 标志位，是否压缩、是否带逻辑过期时间、是否带重建耗时
+ * 8字节 逻辑过期时间的毫秒数，仅在带逻辑过期时间时存在
+ * 4字节 重建耗时的毫秒数，仅在提前刷新的数据中存在
+ * 4字节 压缩前的长度，仅在压缩时存在
+ * 旧的JSON数据交给JsonCacheCodec解析，迁移期间可以直接读取
+ */
+@Slf4j
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xC1;
+    private static final byte VERSION = 1;
+
+    private static final byte FLAG_LZ4 = 1;
+    private static final byte FLAG_LOGICAL_EXPIRE = 1 << 1;
+    private static final byte FLAG_DELTA = 1 << 2;
+
+    private static final int HEADER_LENGTH = 3;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final JsonCacheCodec legacy = new JsonCacheCodec();
+
+    /**
+     * 超过该字节数时压缩，小于等于0表示不压缩
+     */
+    private final int compressThreshold;
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, null, -1);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return legacy.decode(bytes, type);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte flags = readHeader(buffer);
+        if (flags < 0) {
+            return null;
+        }
+        if ((flags & FLAG_LOGICAL_EXPIRE) != 0) {
+            buffer.getLong();
+        }
+        if ((flags & FLAG_DELTA) != 0) {
+            buffer.getInt();
+        }
+        return read(buffer, flags, type);
+    }
+
+    @Override
+    public byte[] encodeWithLogicalExpire(Object value, LocalDateTime expireTime) {
+        return write(value, expireTime, -1);
+    }
+
+    @Override
+    public byte[] encodeWithRefreshAhead(Object value, LocalDateTime expireTime, long deltaMillis) {
+        return write(value, expireTime, deltaMillis);
+    }
+
+    @Override
+    public <R> RedisData decodeWithLogicalExpire(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return legacy.decodeWithLogicalExpire(bytes, type);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte flags = readHeader(buffer);
+        if (flags < 0 || (flags & FLAG_LOGICAL_EXPIRE) == 0) {
+            return null;
+        }
+        // 过期时间在头部，不需要先解析外层对象
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong()), ZONE));
+        if ((flags & FLAG_DELTA) != 0) {
+            redisData.setDelta((long) buffer.getInt());
+        }
+        redisData.setData(read(buffer, flags, type));
+        return redisData;
+    }
+
+    /**
+     * @param deltaMillis 重建耗时，小于0表示不保存
+     */
+    private byte[] write(Object value, LocalDateTime expireTime, long deltaMillis) {
+        byte[] body;
+        try {
+            body = mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存序列化失败：" + value.getClass(), e);
+        }
+        byte flags = 0;
+        int length = HEADER_LENGTH;
+        if (expireTime != null) {
+            flags |= FLAG_LOGICAL_EXPIRE;
+            length += Long.BYTES;
+        }
+        if (deltaMillis >= 0) {
+            flags |= FLAG_DELTA;
+            length += Integer.BYTES;
+        }
+        int rawLength = body.length;
+        if (compressThreshold > 0 && rawLength > compressThreshold) {
+            byte[] compressed = compressor.compress(body);
+            // 压缩后没有变小就保存原文
+            if (compressed.length + Integer.BYTES < rawLength) {
+                body = compressed;
+                flags |= FLAG_LZ4;
+                length += Integer.BYTES;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length + body.length);
+        buffer.put(MAGIC).put(VERSION).put(flags);
+        if (expireTime != null) {
+            buffer.putLong(expireTime.atZone(ZONE).toInstant().toEpochMilli());
+        }
+        if (deltaMillis >= 0) {
+            buffer.putInt((int) Math.min(deltaMillis, Integer.MAX_VALUE));
+        }
+        if ((flags & FLAG_LZ4) != 0) {
+            buffer.putInt(rawLength);
+        }
+        buffer.put(body);
+        return buffer.array();
+    }
+
+    /**
+     * @return 标志位，版本不认识时返回-1
+     */
+    private byte readHeader(ByteBuffer buffer) {
+        buffer.get();
+        byte version = buffer.get();
+        if (version != VERSION) {
+            // 更新版本的节点写入的数据，当作未命中
+            log.debug("无法识别的缓存格式版本：{}", version);
+            return -1;
+        }
+        return buffer.get();
+    }
+
+    private <R> R read(ByteBuffer buffer, byte flags, Class<R> type) {
+        byte[] body;
+        int offset;
+        int length;
+        if ((flags & FLAG_LZ4) != 0) {
+            int rawLength = buffer.getInt();
+            body = decompressor.decompress(buffer.array(), buffer.position(), rawLength);
+            offset = 0;
+            length = rawLength;
+        } else {
+            body = buffer.array();
+            offset = buffer.position();
+            length = buffer.remaining();
+        }
+        try {
+            return mapper.readValue(body, offset, length, type);
+        } catch (IOException e) {
+            // 数据损坏或与类型不匹配，当作未命中
+            log.debug("缓存反序列化失败：{}", type, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Blog;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_EPOCH_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_MAINTAINED_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_SEEDED_KEY;
+
+/**
+ * 热门博文排行，blog:hot有序集合，分数由点赞、评论、发布事件累加，并随时间衰减
+ * 采用前向衰减：事件分数 = 权重 * 2^((事件时间 - 起点) / 半衰期)，旧分数不需要修改，
+ * 定时任务把起点移到当前时间并同比例缩小所有分数，排名不变，避免分数无限增长
+ */
+@Slf4j
+@Component
+public class BlogHotRanking {
+
+    private static final DefaultRedisScript<String> HOT_SCRIPT = script("blog_hot.lua", String.class);
+    private static final DefaultRedisScript<Long> RENORMALIZE_SCRIPT = script("blog_hot_renormalize.lua", Long.class);
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> SCROLL_SCRIPT = script("blog_hot_scroll.lua", List.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long halfLifeMillis;
+    private final int maxSize;
+    private final double likeWeight;
+    private final double commentWeight;
+    private final double publishWeight;
+
+    public BlogHotRanking(StringRedisTemplate stringRedisTemplate,
+                          @Value("${hmdp.blog.hot.half-life-hours:24}") long halfLifeHours,
+                          @Value("${hmdp.blog.hot.max-size:10000}") int maxSize,
+                          @Value("${hmdp.blog.hot.like-weight:1}") double likeWeight,
+                          @Value("${hmdp.blog.hot.comment-weight:2}") double commentWeight,
+                          @Value("${hmdp.blog.hot.publish-weight:10}") double publishWeight) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.halfLifeMillis = TimeUnit.HOURS.toMillis(halfLifeHours);
+        this.maxSize = maxSize;
+        this.likeWeight = likeWeight;
+        this.commentWeight = commentWeight;
+        this.publishWeight = publishWeight;
+    }
+
+    /**
+     * 点赞加分，取消点赞按当前时间的权重减分，反复点赞取消不能刷高分数
+     */
+    public void onLike(Long blogId, boolean liked) {
+        record(blogId, liked ? likeWeight : -likeWeight);
+    }
+
+    public void onComment(Long blogId) {
+        record(blogId, commentWeight);
+    }
+
+    public void onPublish(Long blogId) {
+        record(blogId, publishWeight);
+    }
+
+    private void record(Long blogId, double weight) {
+        try {
+            stringRedisTemplate.execute(HOT_SCRIPT, Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EPOCH_KEY),
+                    blogId.toString(), String.valueOf(weight),
+                    String.valueOf(System.currentTimeMillis()), String.valueOf(halfLifeMillis));
+        } catch (Exception e) {
+            // 排行只影响热门列表的顺序，失败不影响业务，定时任务重建时会补上
+            log.error("更新热门博文分数失败，blogId：{}", blogId, e);
+        }
+    }
+
+    /**
+     * 查询一页热门博文id，按分数倒序 ZREVRANGE key from to，和重建标记一起用一次pipeline查询
+     * @return 排行还没有从数据库重建时返回null，此时集合中只有重建前发生过事件的博文
+     */
+    @SuppressWarnings("unchecked")
+    public List<Long> page(int current, int pageSize) {
+        long from = (long) (current - 1) * pageSize;
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) {
+                operations.hasKey(BLOG_HOT_SEEDED_KEY);
+                operations.opsForZSet().reverseRange(BLOG_HOT_KEY, from, from + pageSize - 1);
+                return null;
+            }
+        });
+        if (!BooleanUtil.isTrue((Boolean) results.get(0))) {
+            return null;
+        }
+        Set<String> ids = (Set<String>) results.get(1);
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return ids.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 滚动查询一页热门博文，ZREVRANGEBYSCORE key max -inf WITHSCORES LIMIT offset count
+     * 和重建标记、衰减起点一起在脚本中读取，翻页期间起点移动时按比例换算max
+     * @param max 上一页最小的分数，为空时从最高分开始
+     * @param epoch 上一页分数对应的衰减起点
+     * @param offset 跳过分数小于等于max的前offset条
+     * @return 排行还没有从数据库重建时返回null
+     */
+    public Scroll scroll(Double max, Long epoch, int offset, int count) {
+        List<?> result = stringRedisTemplate.execute(SCROLL_SCRIPT,
+                Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EPOCH_KEY, BLOG_HOT_SEEDED_KEY),
+                max == null ? "" : max.toString(), epoch == null ? "" : epoch.toString(),
+                String.valueOf(offset), String.valueOf(count), String.valueOf(halfLifeMillis));
+        if (result == null || ((Number) result.get(0)).intValue() == 0) {
+            return null;
+        }
+        List<Long> ids = new ArrayList<>(count);
+        //1.下一页的游标：本页最小的分数，和分数等于它的条数，整页分数都等于max时累加上一页的条数
+        Double minScore = max;
+        int nextOffset = offset;
+        for (int i = 2; i + 1 < result.size(); i += 2) {
+            ids.add(Long.valueOf((String) result.get(i)));
+            Double score = Double.valueOf((String) result.get(i + 1));
+            if (score.equals(minScore)) {
+                nextOffset++;
+            } else {
+                minScore = score;
+                nextOffset = 1;
+            }
+        }
+        //2.没有下一页时保留传入的游标，它对应的是传入的起点
+        String currentEpoch = (String) result.get(1);
+        Long scoreEpoch = ids.isEmpty() || StrUtil.isEmpty(currentEpoch) ? epoch : Long.valueOf(currentEpoch);
+        return new Scroll(ids, minScore, scoreEpoch, nextOffset);
+    }
+
+    /**
+     * 是否已经从数据库重建过，redis重启后点赞、评论会先让blog:hot重新出现，不能用集合是否存在判断
+     */
+    public boolean isSeeded() {
+        return BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_HOT_SEEDED_KEY));
+    }
+
+    /**
+     * 重建完成后写入标记
+     */
+    public void markSeeded() {
+        stringRedisTemplate.opsForValue().set(BLOG_HOT_SEEDED_KEY, String.valueOf(System.currentTimeMillis()));
+    }
+
+    /**
+     * 多个节点的定时任务在一个周期内只有一个执行
+     */
+    public boolean tryAcquireMaintenance(long intervalMillis) {
+        return BooleanUtil.isTrue(stringRedisTemplate.opsForValue()
+                .setIfAbsent(BLOG_HOT_MAINTAINED_KEY, "1", Math.max(1L, intervalMillis - 1000), TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 根据数据库中的点赞数、评论数和发布时间批量写入分数，用于重建
+     * ZADD覆盖重建前由事件累加的分数，这些事件已经计入数据库中的点赞数、评论数
+     */
+    public void seed(Collection<Blog> blogs) {
+        stringRedisTemplate.opsForValue().setIfAbsent(BLOG_HOT_EPOCH_KEY, String.valueOf(System.currentTimeMillis()));
+        long epoch = Long.parseLong(stringRedisTemplate.opsForValue().get(BLOG_HOT_EPOCH_KEY));
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (Blog blog : blogs) {
+                    double weight = publishWeight
+                            + likeWeight * (blog.getLiked() == null ? 0 : blog.getLiked())
+                            + commentWeight * (blog.getComments() == null ? 0 : blog.getComments());
+                    long time = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    operations.opsForZSet().add(BLOG_HOT_KEY, blog.getId().toString(),
+                            weight * Math.pow(2, (double) (time - epoch) / halfLifeMillis));
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 把衰减起点移到当前时间并裁剪集合
+     * @return 裁剪掉的博文数
+     */
+    public long renormalize() {
+        Long removed = stringRedisTemplate.execute(RENORMALIZE_SCRIPT, Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EPOCH_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(halfLifeMillis), String.valueOf(maxSize));
+        return removed == null ? 0L : removed;
+    }
+
+    private static <T> DefaultRedisScript<T> script(String location, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(resultType);
+        return script;
+    }
+
+    /**
+     * 滚动查询的一页，ids按分数倒序；minScore、epoch、offset为下一页的游标
+     */
+    @Data
+    public static class Scroll {
+        private final List<Long> ids;
+        private final Double minScore;
+        /**
+         * minScore对应的衰减起点
+         */
+        private final Long epoch;
+        private final int offset;
+    }
+}
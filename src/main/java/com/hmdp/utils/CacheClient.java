@@ -1,45 +1,135 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILT_CHANNEL;
 
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+
+    /**
+     * 互斥重建时等待超时的处理方式
+     */
+    public enum TimeoutPolicy {
+        /**
+         * 直接查询数据库返回，不写缓存
+         */
+        FALLBACK_DB,
+        /**
+         * 返回null
+         */
+        RETURN_NULL,
+        /**
+         * 抛出异常
+         */
+        FAIL
+    }
+
+    /**
+     * 空值标记，对应旧格式中的空字符串
+     */
+    private static final byte[] NULL_BYTES = new byte[0];
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 缓存值以字节读写，格式由codec决定
+     */
+    private final RedisTemplate<String, byte[]> redisTemplate;
+
+    private final CacheCodec codec;
+
+    private final NearCache nearCache;
+
+    private final RedisLockFactory lockFactory;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    /**
+     * 本节点正在重建的key，同一个key的并发请求共用一个结果
+     */
+    private final Map<String, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+    /**
+     * 等待其它节点重建完成的key
+     */
+    private final Map<String, CompletableFuture<Void>> rebuiltNotices = new ConcurrentHashMap<>();
+
+    private final long mutexWaitTimeoutMillis;
+    private final TimeoutPolicy mutexTimeoutPolicy;
+    private final double refreshAheadBeta;
+    private final long refreshAheadMinDeltaMillis;
+    /**
+     * 提前刷新判断使用的随机数，范围[0, 1)，测试时替换为固定值
+     */
+    private DoubleSupplier refreshAheadRandom = () -> ThreadLocalRandom.current().nextDouble();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> byteRedisTemplate,
+                       CacheCodec codec, NearCache nearCache, RedisLockFactory lockFactory,
+                       CacheRebuildExecutor rebuildExecutor,
+                       @Value("${hmdp.cache.mutex.wait-timeout-ms:3000}") long mutexWaitTimeoutMillis,
+                       @Value("${hmdp.cache.mutex.timeout-policy:fallback-db}") TimeoutPolicy mutexTimeoutPolicy,
+                       @Value("${hmdp.cache.refresh-ahead.beta:1.0}") double refreshAheadBeta,
+                       @Value("${hmdp.cache.refresh-ahead.min-delta-ms:100}") long refreshAheadMinDeltaMillis) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisTemplate = byteRedisTemplate;
+        this.codec = codec;
+        this.nearCache = nearCache;
+        this.lockFactory = lockFactory;
+        this.rebuildExecutor = rebuildExecutor;
+        this.mutexWaitTimeoutMillis = mutexWaitTimeoutMillis;
+        this.mutexTimeoutPolicy = mutexTimeoutPolicy;
+        this.refreshAheadBeta = refreshAheadBeta;
+        this.refreshAheadMinDeltaMillis = refreshAheadMinDeltaMillis;
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        redisTemplate.opsForValue().set(key, codec.encode(value), time, unit);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        // 设置逻辑过期，写入Redis
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        redisTemplate.opsForValue().set(key, codec.encodeWithLogicalExpire(value, expireTime));
+    }
+
+    /**
+     * 删除缓存，同时失效所有节点的一级缓存，数据写入方在更新数据库后调用
+     */
+    public void delete(String key) {
+        redisTemplate.delete(key);
+        nearCache.invalidateAll(key);
     }
 
     /**
@@ -56,134 +146,563 @@ public class CacheClient {
      */
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        return queryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit, null);
+    }
+
+    /**
+     * @param mightExist 一级缓存和redis都未命中时调用，例如布隆过滤器，返回false时直接返回null，不查数据库也不写空值
+     *                   放在两级缓存之后，命中缓存的请求不需要额外访问redis
+     */
+    public <R,ID> R queryWithPassThrough(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+            Predicate<ID> mightExist){
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        CacheMetrics metrics = CacheMetrics.of(CacheMetrics.Strategy.PASS_THROUGH, keyPrefix);
+        // 1.先查本地一级缓存，再查redis
+        Object cached = getFromCache(keyPrefix, key, type);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        if (cached != null) {
+            // 3.存在，直接返回，命中空值时返回null
+            if (cached == NearCache.NULL_VALUE) {
+                metrics.nullHit.increment();
+                return null;
+            }
+            metrics.hit.increment();
+            return type.cast(cached);
         }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
+        metrics.miss.increment();
+        if (mightExist != null && !mightExist.test(id)) {
+            // 一定不存在的id，不写空值，避免大量随机id占用缓存
             return null;
         }
+        long start = System.nanoTime();
+        try {
+            // 4.不存在，根据id查询数据库
+            R r = dbFallback.apply(id);
+            // 5.不存在，返回错误
+            if (r == null) {
+                // 将空值写入redis
+                redisTemplate.opsForValue().set(key, NULL_BYTES, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                nearCache.put(keyPrefix, key, null);
+                // 返回错误信息
+                return null;
+            }
+            // 6.存在，写入redis
+            this.set(key, r, time, unit);
+            nearCache.put(keyPrefix, key, r);
+            return r;
+        } finally {
+            metrics.rebuild.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
 
-        // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
-        // 5.不存在，返回错误
-        if (r == null) {
-            // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 返回错误信息
-            return null;
+    /**
+     * 批量查询，解决缓存穿透：一次MGET查询redis，未命中的id用一次IN查询数据库，再用一次pipeline写回redis
+     * @param dbFallback 根据一批id查询数据库，返回id到对象的映射，不存在的id不放入map，返回null等同于空map
+     * @return 按ids的顺序返回存在的对象，不存在的id不放入map
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>(ids.size());
+        CacheMetrics metrics = CacheMetrics.of(CacheMetrics.Strategy.BATCH, keyPrefix);
+        // 0.先查本地一级缓存
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = nearCache.get(keyPrefix, keyPrefix + id);
+            if (local == null) {
+                remoteIds.add(id);
+            } else if (local != NearCache.NULL_VALUE) {
+                found.put(id, type.cast(local));
+                metrics.hit.increment();
+            } else {
+                metrics.nullHit.increment();
+            }
+        }
+        if (!remoteIds.isEmpty()) {
+            // 1.MGET从redis批量查询
+            List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            List<byte[]> values = redisTemplate.opsForValue().multiGet(keys);
+            List<ID> missIds = new ArrayList<>();
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                R r = bytes == null || bytes.length == 0 ? null : codec.decode(bytes, type);
+                if (r != null) {
+                    // 2.命中，直接使用
+                    found.put(id, r);
+                    nearCache.put(keyPrefix, keys.get(i), r);
+                    metrics.hit.increment();
+                } else if (bytes != null && bytes.length == 0) {
+                    // 3.命中空值
+                    nearCache.put(keyPrefix, keys.get(i), null);
+                    metrics.nullHit.increment();
+                } else {
+                    missIds.add(id);
+                }
+            }
+            // 4.未命中的id一次性查询数据库并写回redis
+            if (!missIds.isEmpty()) {
+                metrics.miss.increment(missIds.size());
+                long start = System.nanoTime();
+                Map<ID, R> loaded = dbFallback.apply(missIds);
+                if (loaded == null) {
+                    // 按全部不存在处理，写入空值
+                    loaded = Collections.emptyMap();
+                }
+                setBatch(keyPrefix, missIds, loaded, time, unit);
+                metrics.rebuild.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                found.putAll(loaded);
+            }
+        }
+        // 5.按传入的顺序返回
+        Map<ID, R> result = new LinkedHashMap<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量写入带TTL的缓存，用一次pipeline完成
+     * 实际TTL在time的基础上随机增加最多10%，避免同时写入的大量key在同一时刻过期
+     * @param values key到对象的映射
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                ValueOperations<String, byte[]> ops = operations.opsForValue();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                values.forEach((key, value) -> ops.set(key, codec.encode(value),
+                        millis + random.nextLong(millis / 10 + 1), TimeUnit.MILLISECONDS));
+                return null;
+            }
+        });
+        // 一次发布通知其它节点，不逐个key发布
+        nearCache.invalidateAll(values.keySet());
+    }
+
+    /**
+     * 批量写入逻辑过期的缓存，用一次pipeline完成，用于缓存预热
+     * @param values key到对象的映射
+     */
+    public void setBatchWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                ValueOperations<String, byte[]> ops = operations.opsForValue();
+                values.forEach((key, value) -> ops.set(key, codec.encodeWithLogicalExpire(value, expireTime)));
+                return null;
+            }
+        });
+        // 一次发布通知其它节点，不逐个key发布
+        nearCache.invalidateAll(values.keySet());
+    }
+
+    private <R, ID> void setBatch(String keyPrefix, List<ID> ids, Map<ID, R> values, Long time, TimeUnit unit) {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                ValueOperations<String, byte[]> ops = operations.opsForValue();
+                for (ID id : ids) {
+                    R r = values.get(id);
+                    if (r == null) {
+                        // 不存在的id同样写入空值
+                        ops.set(keyPrefix + id, NULL_BYTES, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    } else {
+                        ops.set(keyPrefix + id, codec.encode(r), time, unit);
+                    }
+                }
+                return null;
+            }
+        });
+        for (ID id : ids) {
+            nearCache.put(keyPrefix, keyPrefix + id, values.get(id));
         }
-        // 6.存在，写入redis
-        this.set(key, r, time, unit);
-        return r;
     }
 
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
-            return null;
+        CacheMetrics metrics = CacheMetrics.of(CacheMetrics.Strategy.LOGICAL_EXPIRE, keyPrefix);
+        // 0.先查本地一级缓存，缓存的是已经反序列化好的RedisData
+        RedisData redisData = (RedisData) nearCache.get(keyPrefix, key);
+        if (redisData == null) {
+            // 1.从redis查询商铺缓存
+            byte[] bytes = redisTemplate.opsForValue().get(key);
+            // 2.判断是否存在
+            if (bytes == null) {
+                // 3.不存在，说明没有预热或者被删除，查询数据库并写入逻辑过期的缓存
+                metrics.miss.increment();
+                long start = System.nanoTime();
+                try {
+                    return loadWithLogicalExpire(keyPrefix, key, id, dbFallback, time, unit);
+                } finally {
+                    metrics.rebuild.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            }
+            if (bytes.length == 0) {
+                // 命中空值
+                metrics.nullHit.increment();
+                return null;
+            }
+            // 4.命中，反序列化为对象，二进制格式的过期时间在头部，只解析一次
+            redisData = codec.decodeWithLogicalExpire(bytes, type);
+            if (redisData == null) {
+                // 无法识别的格式，按未命中处理
+                metrics.miss.increment();
+                return loadWithLogicalExpire(keyPrefix, key, id, dbFallback, time, unit);
+            }
+            nearCache.put(keyPrefix, key, redisData);
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
         if(expireTime.isAfter(LocalDateTime.now())) {
             // 5.1.未过期，直接返回店铺信息
+            metrics.hit.increment();
             return r;
         }
         // 5.2.已过期，需要缓存重建
+        metrics.expired.increment();
         // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取锁成功
-        if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
+        // 6.1.提交重建任务，本节点同一个key只有一个任务，队列满时放弃，下次访问再提交
+        rebuildExecutor.submit(key, () -> {
+            // 6.2.在重建线程中获取互斥锁，持有期间由看门狗续约，重建再慢也不会丢锁
+            RedisReentrantLock lock = lockFactory.getLock(key);
+            if (!lock.tryLock()) {
+                // 其它节点正在重建
+                metrics.lockContention.increment();
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                // 6.3.再检查一次，其它节点可能刚刚重建完成
+                byte[] latest = redisTemplate.opsForValue().get(key);
+                RedisData current = latest == null || latest.length == 0 ? null : codec.decodeWithLogicalExpire(latest, type);
+                if (current != null && current.getExpireTime().isAfter(LocalDateTime.now())) {
+                    return;
+                }
+                // 查询数据库
+                R newR = dbFallback.apply(id);
+                if (newR == null) {
+                    // 数据已被删除，写入空值，不再保存逻辑过期的旧数据
+                    redisTemplate.opsForValue().set(key, NULL_BYTES, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                } else {
                     // 重建缓存
                     this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
                 }
-            });
-        }
+                // 通知各节点丢弃旧的一级缓存
+                nearCache.invalidateAll(key);
+                metrics.rebuild.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } finally {
+                // 释放锁
+                lock.unlock();
+            }
+        });
         // 6.4.返回过期的商铺信息
         return r;
     }
 
-    public <R, ID> R queryWithMutex(
+    private <R, ID> R loadWithLogicalExpire(
+            String keyPrefix, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            // 将空值写入redis，避免缓存穿透
+            redisTemplate.opsForValue().set(key, NULL_BYTES, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        this.setWithLogicalExpire(key, r, time, unit);
+        RedisData redisData = new RedisData();
+        redisData.setData(r);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        nearCache.put(keyPrefix, key, redisData);
+        return r;
+    }
+
+    /**
+     * 提前刷新(XFetch)：缓存同时保存过期时间和重建耗时delta，redis的TTL与过期时间相同
+     * 每次读取时，满足 now - delta * beta * ln(random) >= expireTime 就在后台提前刷新，越接近过期、重建越慢，刷新的概率越大
+     * 热点key读取频繁，几乎总能在过期前刷新，不会出现集中的未命中；冷key很少被读取，到期后由redis删除
+     * 读路径上没有锁，只有未命中时同步查询数据库
+     * 缓存格式与其它策略不同，一个前缀只能使用这一种策略
+     */
+    public <R, ID> R queryWithRefreshAhead(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+        CacheMetrics metrics = CacheMetrics.of(CacheMetrics.Strategy.REFRESH_AHEAD, keyPrefix);
+        // 1.先查本地一级缓存，再查redis
+        RedisData redisData = (RedisData) nearCache.get(keyPrefix, key);
+        if (redisData == null) {
+            byte[] bytes = redisTemplate.opsForValue().get(key);
+            if (bytes != null && bytes.length == 0) {
+                // 命中空值
+                metrics.nullHit.increment();
+                return null;
+            }
+            // 无法识别的格式按未命中处理
+            redisData = bytes == null ? null : codec.decodeWithLogicalExpire(bytes, type);
+            if (redisData == null) {
+                // 2.未命中，同步查询数据库
+                metrics.miss.increment();
+                redisData = loadWithRefreshAhead(key, id, dbFallback, time, unit, metrics);
+                if (redisData == null) {
+                    return null;
+                }
+                nearCache.put(keyPrefix, key, redisData);
+                return type.cast(redisData.getData());
+            }
+            nearCache.put(keyPrefix, key, redisData);
         }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
+        metrics.hit.increment();
+        // 3.按概率提前刷新，同一个key在本节点只有一个刷新任务
+        if (shouldRefreshAhead(redisData) && !rebuildExecutor.isPending(key)) {
+            metrics.earlyRefresh.increment();
+            rebuildExecutor.submit(key, () -> {
+                loadWithRefreshAhead(key, id, dbFallback, time, unit, metrics);
+                // 通知各节点丢弃旧的一级缓存
+                nearCache.invalidateAll(key);
+            });
+        }
+        return type.cast(redisData.getData());
+    }
+
+    /**
+     * delta过小时刷新窗口比后台任务的排队时间还短，按refreshAheadMinDeltaMillis计算
+     */
+    private boolean shouldRefreshAhead(RedisData redisData) {
+        long delta = Math.max(redisData.getDelta() == null ? 0 : redisData.getDelta(), refreshAheadMinDeltaMillis);
+        // 1 - nextDouble()的范围是(0, 1]，避免ln(0)
+        double gapMillis = -delta * refreshAheadBeta * Math.log(1 - refreshAheadRandom.getAsDouble());
+        return !LocalDateTime.now().plusNanos((long) (gapMillis * 1_000_000)).isBefore(redisData.getExpireTime());
+    }
+
+    /**
+     * 查询数据库，连同耗时和过期时间写入redis
+     * @return 数据库中不存在时返回null
+     */
+    private <R, ID> RedisData loadWithRefreshAhead(
+            String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit, CacheMetrics metrics) {
+        long start = System.nanoTime();
+        R r = dbFallback.apply(id);
+        long delta = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (r == null) {
+            // 将空值写入redis，避免缓存穿透
+            redisTemplate.opsForValue().set(key, NULL_BYTES, CACHE_NULL_TTL, TimeUnit.MINUTES);
             return null;
         }
+        long ttlMillis = unit.toMillis(time);
+        LocalDateTime expireTime = LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+        redisTemplate.opsForValue().set(key, codec.encodeWithRefreshAhead(r, expireTime, delta), ttlMillis, TimeUnit.MILLISECONDS);
+        metrics.rebuild.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        RedisData redisData = new RedisData();
+        redisData.setData(r);
+        redisData.setExpireTime(expireTime);
+        redisData.setDelta(delta);
+        return redisData;
+    }
+
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        CacheMetrics metrics = CacheMetrics.of(CacheMetrics.Strategy.MUTEX, keyPrefix);
+        // 1.先查本地一级缓存，再查redis
+        Object cached = getFromCache(keyPrefix, key, type);
+        if (cached != null) {
+            (cached == NearCache.NULL_VALUE ? metrics.nullHit : metrics.hit).increment();
+            return cached == NearCache.NULL_VALUE ? null : type.cast(cached);
+        }
+        metrics.miss.increment();
+        // 2.未命中，同一个key在本节点只有一个线程去重建，其它线程等待它的结果
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inflight.putIfAbsent(key, flight);
+        Object value;
+        if (leader != null) {
+            long start = System.nanoTime();
+            try {
+                value = awaitLeader(leader, key, id, dbFallback);
+            } finally {
+                metrics.lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        } else {
+            try {
+                value = rebuildWithMutex(keyPrefix, key, id, type, dbFallback, time, unit, metrics);
+                flight.complete(value);
+            } catch (RuntimeException e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                inflight.remove(key, flight);
+            }
+        }
+        return value == NearCache.NULL_VALUE ? null : type.cast(value);
+    }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+    /**
+     * 跨节点的缓存重建：拿到redis锁的节点查询数据库并写缓存，然后发布重建完成的通知
+     * 没拿到锁的节点等待通知，不再轮询
+     * @return 重建后的值，空值返回NearCache.NULL_VALUE
+     */
+    private <R, ID> Object rebuildWithMutex(
+            String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+            CacheMetrics metrics) {
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            return lockOrAwaitRebuild(keyPrefix, key, id, type, dbFallback, time, unit, metrics);
+        } finally {
+            // 无论是否收到通知都移除登记，再次检查时命中缓存、超时、异常返回的通知不会再有人完成
+            // 本节点同一个key只有inflight中的一个线程会走到这里，登记的通知不会与其它线程共用
+            rebuiltNotices.remove(key);
+        }
+    }
+
+    private <R, ID> Object lockOrAwaitRebuild(
+            String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+            CacheMetrics metrics) {
+        RedisReentrantLock lock = lockFactory.getLock(key);
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(mutexWaitTimeoutMillis);
+        boolean contended = false;
+        while (true) {
+            // 3.获取互斥锁
+            if (lock.tryLock()) {
+                if (contended) {
+                    metrics.lockWait.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+                }
+                long start = System.nanoTime();
+                try {
+                    // 3.1.再查一次缓存，其它节点可能刚刚重建完成
+                    Object cached = getFromCache(keyPrefix, key, type, false);
+                    if (cached != null) {
+                        return cached;
+                    }
+                    // 3.2.根据id查询数据库
+                    R r = dbFallback.apply(id);
+                    if (r == null) {
+                        // 将空值写入redis
+                        redisTemplate.opsForValue().set(key, NULL_BYTES, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    } else {
+                        this.set(key, r, time, unit);
+                    }
+                    nearCache.put(keyPrefix, key, r);
+                    // 3.3.通知其它节点上等待的线程
+                    stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+                    metrics.rebuild.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    return r == null ? NearCache.NULL_VALUE : r;
+                } finally {
+                    // 3.4.释放锁
+                    lock.unlock();
+                }
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
+            // 4.获取锁失败，先登记等待，再检查一次缓存，避免错过登记之前发出的通知
+            if (!contended) {
+                contended = true;
+                metrics.lockContention.increment();
+            }
+            CompletableFuture<Void> notice = rebuiltNotices.computeIfAbsent(key, k -> new CompletableFuture<>());
+            Object cached = getFromCache(keyPrefix, key, type, false);
+            if (cached != null) {
+                metrics.lockWait.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+                return cached;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                metrics.lockWait.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+                return onWaitTimeout(key, id, dbFallback);
+            }
+            // 5.等待重建完成的通知，被唤醒或者超时后重新检查缓存和锁，持锁节点宕机时锁会自动过期
+            try {
+                notice.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ignored) {
+                // 下一轮判断是否超过等待时间
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private <ID> Object awaitLeader(CompletableFuture<Object> leader, String key, ID id, Function<ID, ?> dbFallback) {
+        try {
+            return leader.get(mutexWaitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return onWaitTimeout(key, id, dbFallback);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
+        } catch (ExecutionException e) {
+            // 重建线程的异常原样抛给等待的线程
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+    }
+
+    private <ID> Object onWaitTimeout(String key, ID id, Function<ID, ?> dbFallback) {
+        log.warn("等待缓存重建超时，key：{}，处理方式：{}", key, mutexTimeoutPolicy);
+        switch (mutexTimeoutPolicy) {
+            case FALLBACK_DB:
+                // 直接查询数据库，不写缓存，缓存留给持锁的线程写
+                Object r = dbFallback.apply(id);
+                return r == null ? NearCache.NULL_VALUE : r;
+            case RETURN_NULL:
+                return NearCache.NULL_VALUE;
+            default:
+                throw new RuntimeException("等待缓存重建超时，key：" + key);
         }
-        // 8.返回
-        return r;
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    /**
+     * 先查本地一级缓存，再查redis
+     * @return 未命中返回null，命中空值返回NearCache.NULL_VALUE
+     */
+    private <R> Object getFromCache(String keyPrefix, String key, Class<R> type) {
+        return getFromCache(keyPrefix, key, type, true);
+    }
+
+    /**
+     * @param record 是否计入热点探测，同一次查询的再次检查传false
+     */
+    private <R> Object getFromCache(String keyPrefix, String key, Class<R> type, boolean record) {
+        Object local = record ? nearCache.get(keyPrefix, key) : nearCache.peek(keyPrefix, key);
+        if (local != null) {
+            return local;
+        }
+        byte[] bytes = redisTemplate.opsForValue().get(key);
+        if (bytes == null) {
+            return null;
+        }
+        // 命中空值，说明数据库中不存在
+        R r = null;
+        if (bytes.length > 0) {
+            r = codec.decode(bytes, type);
+            if (r == null) {
+                // 无法识别的格式，按未命中处理
+                return null;
+            }
+        }
+        nearCache.put(keyPrefix, key, r);
+        return r == null ? NearCache.NULL_VALUE : r;
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 其它节点重建完缓存后发来的通知，唤醒本节点等待这个key的线程
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        CompletableFuture<Void> notice = rebuiltNotices.remove(key);
+        if (notice != null) {
+            notice.complete(null);
+        }
     }
+
 }
@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * 缓存值的编解码，CacheClient通过它读写redis中的字节
+ * 空字节数组是缓存空值的标记，由CacheClient处理，不会交给编解码器
+ */
+public interface CacheCodec {
+
+    byte[] encode(Object value);
+
+    /**
+     * @return 无法识别的数据返回null，调用方按未命中处理
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    byte[] encodeWithLogicalExpire(Object value, LocalDateTime expireTime);
+
+    /**
+     * 提前刷新的格式，在逻辑过期时间之外保存重建耗时
+     */
+    byte[] encodeWithRefreshAhead(Object value, LocalDateTime expireTime, long deltaMillis);
+
+    /**
+     * 同时用于读取逻辑过期和提前刷新的数据
+     * @return data已经是type类型的RedisData，无法识别的数据返回null
+     */
+    <R> RedisData decodeWithLogicalExpire(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CacheClient按key前缀、查询策略统计的指标
+ * 指标对象按前缀缓存，热路径上只有一次map查询，没有对象分配
+ */
+final class CacheMetrics {
+
+    enum Strategy {
+        PASS_THROUGH, BATCH, MUTEX, LOGICAL_EXPIRE, REFRESH_AHEAD
+    }
+
+    private static final Map<Strategy, Map<String, CacheMetrics>> METRICS = new EnumMap<>(Strategy.class);
+    static {
+        for (Strategy strategy : Strategy.values()) {
+            METRICS.put(strategy, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * 命中缓存
+     */
+    final Counter hit;
+    /**
+     * 命中空值
+     */
+    final Counter nullHit;
+    /**
+     * 未命中，需要查询数据库
+     */
+    final Counter miss;
+    /**
+     * 逻辑过期，返回旧值并异步重建
+     */
+    final Counter expired;
+    /**
+     * 未过期，按概率提前提交了后台刷新
+     */
+    final Counter earlyRefresh;
+    /**
+     * 获取重建锁失败
+     */
+    final Counter lockContention;
+    /**
+     * 查询数据库并写回缓存的耗时
+     */
+    final Timer rebuild;
+    /**
+     * 等待其它线程或节点重建完成的耗时
+     */
+    final Timer lockWait;
+
+    private CacheMetrics(MeterRegistry registry, Strategy strategy, String keyPrefix) {
+        String name = strategy.name().toLowerCase();
+        this.hit = requests(registry, name, keyPrefix, "hit");
+        this.nullHit = requests(registry, name, keyPrefix, "null_hit");
+        this.miss = requests(registry, name, keyPrefix, "miss");
+        this.expired = requests(registry, name, keyPrefix, "expired");
+        this.earlyRefresh = requests(registry, name, keyPrefix, "early_refresh");
+        this.lockContention = Counter.builder("cache.lock.contention")
+                .tag("strategy", name).tag("prefix", keyPrefix).register(registry);
+        this.rebuild = Timer.builder("cache.rebuild")
+                .tag("strategy", name).tag("prefix", keyPrefix).register(registry);
+        this.lockWait = Timer.builder("cache.lock.wait")
+                .tag("strategy", name).tag("prefix", keyPrefix).register(registry);
+    }
+
+    static CacheMetrics of(Strategy strategy, String keyPrefix) {
+        Map<String, CacheMetrics> byPrefix = METRICS.get(strategy);
+        // 先get，jdk8的computeIfAbsent在key已存在时也会加锁
+        CacheMetrics metrics = byPrefix.get(keyPrefix);
+        if (metrics != null) {
+            return metrics;
+        }
+        return byPrefix.computeIfAbsent(keyPrefix, prefix -> new CacheMetrics(Metrics.globalRegistry, strategy, prefix));
+    }
+
+    private static Counter requests(MeterRegistry registry, String strategy, String keyPrefix, String result) {
+        return Counter.builder("cache.requests")
+                .tag("strategy", strategy).tag("prefix", keyPrefix).tag("result", result)
+                .register(registry);
+    }
+}
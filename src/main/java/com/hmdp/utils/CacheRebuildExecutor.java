@@ -0,0 +1,170 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步重建缓存的线程池
+ * 1.同一个key在排队或执行期间只保留一个任务
+ * 2.队列有界，按key在本节点的qps排序，越热的key越先重建
+ * 3.队列满时淘汰排队中最冷的任务，新任务比它们都冷时拒绝，调用方继续返回旧值，下次访问再提交
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor extends LifecycleExecutor {
+
+    private final HotKeyDetector hotKeyDetector;
+    private final int queueCapacity;
+    /**
+     * PriorityBlockingQueue本身无界，容量由submit在queueLock中检查后再入队来保证
+     */
+    private final PriorityBlockingQueue<Runnable> queue;
+    private final Object queueLock = new Object();
+
+    /**
+     * 排队或执行中的任务，用于按key去重
+     */
+    private final Map<String, Task> pending = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Counter submitted;
+    private final Counter deduplicated;
+    private final Counter rejected;
+    private final Counter evicted;
+    /**
+     * 从提交到开始执行的等待时间
+     */
+    private final Timer queueWait;
+
+    public CacheRebuildExecutor(HotKeyDetector hotKeyDetector,
+                                @Value("${hmdp.cache.rebuild.pool-size:10}") int poolSize,
+                                @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity,
+                                @Value("${hmdp.cache.rebuild.shutdown-timeout-ms:10000}") long shutdownTimeoutMillis) {
+        super("cache.rebuild", poolSize, new PriorityBlockingQueue<>(), shutdownTimeoutMillis);
+        this.hotKeyDetector = hotKeyDetector;
+        this.queueCapacity = queueCapacity;
+        this.queue = (PriorityBlockingQueue<Runnable>) executor.getQueue();
+        this.submitted = tasks("submitted");
+        this.deduplicated = tasks("deduplicated");
+        this.rejected = tasks("rejected");
+        this.evicted = tasks("evicted");
+        this.queueWait = Timer.builder("cache.rebuild.queue.wait").register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 提交key的重建任务
+     * @return 是否已提交，key已有任务在排队或执行、队列已满、线程池已关闭时返回false
+     */
+    public boolean submit(String key, Runnable rebuild) {
+        if (!isRunning()) {
+            rejected.increment();
+            return false;
+        }
+        //1.同一个key只保留一个任务
+        if (pending.containsKey(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        Task task = new Task(key, rebuild, hotKeyDetector.estimateQps(key), sequence.incrementAndGet());
+        if (pending.putIfAbsent(key, task) != null) {
+            deduplicated.increment();
+            return false;
+        }
+        //2.容量检查、淘汰和入队在同一把锁中完成，并发提交不会超过容量；工作线程取任务只会让队列变短
+        synchronized (queueLock) {
+            //2.1.队列满时，淘汰比新任务更冷的排队任务，没有则拒绝
+            if (queue.size() >= queueCapacity && !evictColderThan(task)) {
+                pending.remove(key, task);
+                rejected.increment();
+                return false;
+            }
+            //2.2.提交到线程池
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                // 线程池已关闭
+                pending.remove(key, task);
+                rejected.increment();
+                return false;
+            }
+        }
+        submitted.increment();
+        return true;
+    }
+
+    /**
+     * 在queueLock中调用，队列满时才会遍历队列，队列长度有上限，开销可控
+     */
+    private boolean evictColderThan(Task task) {
+        Task coldest = null;
+        for (Runnable r : queue) {
+            Task queued = (Task) r;
+            if (coldest == null || queued.compareTo(coldest) > 0) {
+                coldest = queued;
+            }
+        }
+        if (coldest == null || coldest.compareTo(task) < 0 || !queue.remove(coldest)) {
+            return false;
+        }
+        pending.remove(coldest.key, coldest);
+        evicted.increment();
+        log.debug("缓存重建队列已满，淘汰key：{}，qps：{}", coldest.key, coldest.qps);
+        return true;
+    }
+
+    /**
+     * key是否有任务在排队或执行
+     */
+    public boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+        private final String key;
+        private final Runnable rebuild;
+        private final long qps;
+        private final long seq;
+        private final long submittedAt = System.nanoTime();
+
+        private Task(String key, Runnable rebuild, long qps, long seq) {
+            this.key = key;
+            this.rebuild = rebuild;
+            this.qps = qps;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            queueWait.record(start - submittedAt, TimeUnit.NANOSECONDS);
+            try {
+                rebuild.run();
+            } catch (Throwable e) {
+                failed.increment();
+                log.error("缓存重建失败，key：{}", key, e);
+            } finally {
+                pending.remove(key, this);
+                execution.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * qps高的在前，相同时先提交的在前
+         */
+        @Override
+        public int compareTo(Task o) {
+            int c = Long.compare(o.qps, qps);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发布笔记后推送到粉丝收件箱的线程池
+ * 队列有界，满了或者已经关闭时由发布笔记的线程自己推送，推送变慢但不会丢失
+ */
+@Slf4j
+@Component
+public class FeedFanoutExecutor extends LifecycleExecutor {
+
+    private final Counter submitted;
+    private final Counter callerRuns;
+
+    public FeedFanoutExecutor(@Value("${hmdp.feed.fanout-pool-size:4}") int poolSize,
+                              @Value("${hmdp.feed.fanout-queue-capacity:1000}") int queueCapacity,
+                              @Value("${hmdp.feed.fanout-shutdown-timeout-ms:10000}") long shutdownTimeoutMillis) {
+        super("feed.fanout", poolSize, new LinkedBlockingQueue<>(queueCapacity), shutdownTimeoutMillis);
+        this.submitted = tasks("submitted");
+        this.callerRuns = tasks("caller_runs");
+    }
+
+    /**
+     * 提交推送任务，队列已满或线程池已关闭时在当前线程执行
+     */
+    public void execute(Runnable fanout) {
+        Runnable task = () -> run(fanout);
+        if (isRunning()) {
+            try {
+                executor.execute(task);
+                submitted.increment();
+                return;
+            } catch (RejectedExecutionException e) {
+                // 队列已满或者刚刚关闭
+            }
+        }
+        callerRuns.increment();
+        task.run();
+    }
+
+    private void run(Runnable fanout) {
+        long start = System.nanoTime();
+        try {
+            fanout.run();
+        } catch (Throwable e) {
+            failed.increment();
+            log.error("推送笔记到粉丝收件箱失败", e);
+        } finally {
+            execution.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 本节点的热点key探测，统计缓存key的访问频率，访问量超过阈值的key提升为热点，由NearCache在本地缓存
+ * 使用Count-Min Sketch计数，内存固定，与key的数量无关；按秒分成多个窗口，统计最近window-seconds秒的访问量
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    /**
+     * Count-Min Sketch的行数，每行一个哈希函数，估计值取各行的最小值
+     * 每行用不同种子的murmur3计算，行与行之间相互独立：两个key在一行冲突，在其它行仍然大概率分开
+     */
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final boolean enabled;
+    private final int windowSeconds;
+    private final long thresholdQps;
+    private final double demoteRatio;
+    private final int maxHotKeys;
+    private final int mask;
+    /**
+     * 每秒一个sketch，循环使用
+     */
+    private final Window[] windows;
+
+    /**
+     * 当前的热点key
+     */
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+    /**
+     * 热点key降级时的回调，NearCache用来清除本地缓存的值
+     */
+    private final List<Consumer<String>> demotionListeners = new CopyOnWriteArrayList<>();
+
+    public HotKeyDetector(@Value("${hmdp.cache.hot-key.enabled:true}") boolean enabled,
+                          @Value("${hmdp.cache.hot-key.window-seconds:10}") int windowSeconds,
+                          @Value("${hmdp.cache.hot-key.threshold-qps:200}") long thresholdQps,
+                          @Value("${hmdp.cache.hot-key.demote-ratio:0.5}") double demoteRatio,
+                          @Value("${hmdp.cache.hot-key.max-hot-keys:1000}") int maxHotKeys,
+                          @Value("${hmdp.cache.hot-key.sketch-width:4096}") int sketchWidth) {
+        this.enabled = enabled;
+        this.windowSeconds = windowSeconds;
+        this.thresholdQps = thresholdQps;
+        this.demoteRatio = demoteRatio;
+        this.maxHotKeys = maxHotKeys;
+        // 宽度取2的幂，下标用位运算
+        int width = sketchWidth <= 16 ? 16 : Integer.highestOneBit(sketchWidth - 1) << 1;
+        this.mask = width - 1;
+        this.windows = new Window[windowSeconds];
+        for (int i = 0; i < windowSeconds; i++) {
+            windows[i] = new Window(DEPTH * width);
+        }
+    }
+
+    /**
+     * 记录一次访问
+     * @return key是否为热点
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        Window window = window(second);
+        //1.当前窗口计数，得到本秒的估计值
+        int[] indexes = indexes(key);
+        int current = Integer.MAX_VALUE;
+        for (int index : indexes) {
+            current = Math.min(current, window.counts.incrementAndGet(index));
+        }
+        if (hotKeys.containsKey(key)) {
+            return true;
+        }
+        //2.本秒的访问量达到阈值才计算整个时间窗口，冷的key只有DEPTH次自增和比较
+        if (current < thresholdQps) {
+            return false;
+        }
+        long qps = estimate(indexes, second) / windowSeconds;
+        if (qps >= thresholdQps && hotKeys.size() < maxHotKeys
+                && hotKeys.putIfAbsent(key, new HotKey(key, System.currentTimeMillis(), qps)) == null) {
+            log.info("热点key：{}，qps：{}", key, qps);
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 估计key在本节点的qps，热点key直接使用最近一次刷新的值
+     */
+    public long estimateQps(String key) {
+        if (!enabled) {
+            return 0;
+        }
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey != null) {
+            return hotKey.getQps();
+        }
+        return estimate(indexes(key), System.currentTimeMillis() / 1000) / windowSeconds;
+    }
+
+    /**
+     * 当前的热点key，按qps倒序
+     */
+    public List<HotKey> hotKeys() {
+        List<HotKey> list = new ArrayList<>(hotKeys.values());
+        list.sort(Comparator.comparingLong(HotKey::getQps).reversed());
+        return list;
+    }
+
+    /**
+     * 注册降级回调，参数为降级的key
+     */
+    public void addDemotionListener(Consumer<String> listener) {
+        demotionListeners.add(listener);
+    }
+
+    /**
+     * 每秒重新估计热点key的qps，低于阈值的demoteRatio时降级，留出回差避免在阈值附近反复升降
+     */
+    @Scheduled(fixedRate = 1000)
+    public void refresh() {
+        if (hotKeys.isEmpty()) {
+            return;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        for (HotKey hotKey : hotKeys.values()) {
+            long qps = estimate(indexes(hotKey.getKey()), second) / windowSeconds;
+            hotKey.setQps(qps);
+            if (qps < thresholdQps * demoteRatio && hotKeys.remove(hotKey.getKey(), hotKey)) {
+                log.info("热点key降级：{}，qps：{}", hotKey.getKey(), qps);
+                demotionListeners.forEach(listener -> listener.accept(hotKey.getKey()));
+            }
+        }
+    }
+
+    /**
+     * 时间窗口内的访问量：各秒分别取各行的最小值再相加
+     */
+    private long estimate(int[] indexes, long second) {
+        long total = 0;
+        for (Window window : windows) {
+            long windowSecond = window.second.get();
+            if (windowSecond > second - windowSeconds && windowSecond <= second) {
+                int min = Integer.MAX_VALUE;
+                for (int index : indexes) {
+                    min = Math.min(min, window.counts.get(index));
+                }
+                total += min;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 取这一秒对应的窗口，窗口属于更早的一秒时清零后复用
+     */
+    private Window window(long second) {
+        Window window = windows[(int) (second % windowSeconds)];
+        long old = window.second.get();
+        if (old != second && window.second.compareAndSet(old, second)) {
+            // 清零期间其它线程的少量计数可能丢失，只影响估计精度
+            for (int i = 0; i < window.counts.length(); i++) {
+                window.counts.set(i, 0);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * key在每一行的计数下标
+     */
+    private int[] indexes(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int[] indexes = new int[DEPTH];
+        for (int row = 0; row < DEPTH; row++) {
+            indexes[row] = row * (mask + 1) + (MurmurHash.hash32(bytes, bytes.length, SEEDS[row]) & mask);
+        }
+        return indexes;
+    }
+
+    private static final class Window {
+        private final AtomicLong second = new AtomicLong(-1);
+        private final AtomicIntegerArray counts;
+
+        private Window(int size) {
+            this.counts = new AtomicIntegerArray(size);
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class HotKey {
+        private final String key;
+        /**
+         * 提升为热点的时间
+         */
+        private final long since;
+        private volatile long qps;
+    }
+}
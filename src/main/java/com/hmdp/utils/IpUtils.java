@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import javax.servlet.http.HttpServletRequest;
+
+public class IpUtils {
+    /**
+     * 获取客户端ip，经过反向代理时从配置的请求头读取，只信任这一个请求头，避免客户端伪造
+     * @param ipHeader 代理写入客户端地址的请求头，例如X-Forwarded-For，为空时使用连接的地址
+     */
+    public static String clientIp(HttpServletRequest request, String ipHeader) {
+        if (StrUtil.isNotBlank(ipHeader)) {
+            // X-Forwarded-For可能有多个地址，第一个是客户端
+            String ip = StrUtil.subBefore(request.getHeader(ipHeader), ",", false);
+            if (StrUtil.isNotBlank(ip)) {
+                return ip.trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+}
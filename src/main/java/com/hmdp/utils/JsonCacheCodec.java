@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSON;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * 原有的hutool JSON格式，与StringRedisTemplate写入的数据兼容
+ */
+@Slf4j
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        // 先解析为JSON再转换，数组等非对象类型也能转换
+        try {
+            return JSONUtil.parse(new String(bytes, StandardCharsets.UTF_8)).toBean(type);
+        } catch (RuntimeException e) {
+            // 不是JSON，例如切换编码期间其它节点写入的二进制数据，当作未命中
+            log.debug("无法解析的缓存数据，按未命中处理", e);
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] encodeWithLogicalExpire(Object value, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        return encode(redisData);
+    }
+
+    @Override
+    public byte[] encodeWithRefreshAhead(Object value, LocalDateTime expireTime, long deltaMillis) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        redisData.setDelta(deltaMillis);
+        return encode(redisData);
+    }
+
+    @Override
+    public <R> RedisData decodeWithLogicalExpire(byte[] bytes, Class<R> type) {
+        // 先解析外层的RedisData，data是JSONObject或JSONArray，再转换为目标类型
+        RedisData redisData = decode(bytes, RedisData.class);
+        if (redisData == null || redisData.getExpireTime() == null) {
+            return null;
+        }
+        // 值为null时hutool不输出data字段
+        if (redisData.getData() != null) {
+            redisData.setData(((JSON) redisData.getData()).toBean(type));
+        }
+        return redisData;
+    }
+}
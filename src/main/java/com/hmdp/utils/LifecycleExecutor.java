@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 随容器启停的固定大小线程池
+ * 1.指标以name为前缀：{name}.tasks{result}、{name}.execution、{name}.queue.size、{name}.active
+ * 2.线程名为name中的"."换成"-"，例如cache-rebuild-1
+ * 3.web服务器停止之后、redis连接销毁之前关闭，排队的任务在超时时间内执行完，超时后中断
+ */
+@Slf4j
+public abstract class LifecycleExecutor implements SmartLifecycle {
+
+    private final String name;
+    private final long shutdownTimeoutMillis;
+    protected final ThreadPoolExecutor executor;
+    private volatile boolean running;
+
+    protected final Counter failed;
+    /**
+     * 任务的执行时间
+     */
+    protected final Timer execution;
+
+    protected LifecycleExecutor(String name, int poolSize, BlockingQueue<Runnable> queue, long shutdownTimeoutMillis) {
+        this.name = name;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, queue,
+                ThreadFactoryBuilder.create().setNamePrefix(name.replace('.', '-') + "-").build());
+        this.failed = tasks("failed");
+        this.execution = Timer.builder(name + ".execution").register(Metrics.globalRegistry);
+        Gauge.builder(name + ".queue.size", queue, BlockingQueue::size).register(Metrics.globalRegistry);
+        Gauge.builder(name + ".active", executor, ThreadPoolExecutor::getActiveCount).register(Metrics.globalRegistry);
+        this.running = true;
+    }
+
+    protected final Counter tasks(String result) {
+        return Counter.builder(name + ".tasks").tag("result", result).register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * 先停止接收新任务，再等待排队的任务执行完，超时后中断执行中的任务并丢弃剩余的
+     */
+    @Override
+    public void stop() {
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                List<Runnable> dropped = executor.shutdownNow();
+                log.warn("线程池{}关闭超时，丢弃{}个任务", name, dropped.size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * web服务器在DEFAULT_PHASE和DEFAULT_PHASE - 1停止，这里排在它们之后：不再有新请求提交任务时才开始关闭；
+     * redis连接工厂在所有Lifecycle停止之后才销毁，剩余任务执行时连接仍然可用
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2;
+    }
+}
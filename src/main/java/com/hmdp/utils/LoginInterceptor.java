@@ -1,55 +1,104 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * 根据请求头中的token获取登录用户，保存到UserHolder
+ * required为true时未登录返回401；为false时用于公开接口，有token就获取用户，没有或无效时作为未登录用户放行
+ * readOnly为true时只有GET、HEAD请求可以不登录，同一路径上的新增、修改、删除仍然返回401
+ */
 public class LoginInterceptor implements HandlerInterceptor {
-    private StringRedisTemplate stringRedisTemplate;//注意这里不能采用resource注入，因为这个拦截器是自己创建的，spring没有管理，所以采用构造函数方式
+    private LoginSessionCache loginSessionCache;//注意这里不能采用resource注入，因为这个拦截器是自己创建的，spring没有管理，所以采用构造函数方式
+    private final boolean required;
+    private final boolean readOnly;
 
-    public LoginInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    /**
+     * 登录校验耗时，按结果区分：通过、没有token、token无效，按本次请求是否要求登录分开统计
+     */
+    private final Timers requiredTimers = new Timers(true);
+    private final Timers optionalTimers = new Timers(false);
+
+    public LoginInterceptor(LoginSessionCache loginSessionCache, boolean required) {
+        this(loginSessionCache, required, false);
+    }
+
+    public LoginInterceptor(LoginSessionCache loginSessionCache, boolean required, boolean readOnly) {
+        this.loginSessionCache = loginSessionCache;
+        this.required = required;
+        this.readOnly = readOnly;
     }
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        long start = System.nanoTime();
+        boolean required = this.required || (readOnly && !isRead(request));
+        Timers timers = required ? requiredTimers : optionalTimers;
         //1.获取请求头中token
         String token = request.getHeader("authorization");//前端设置的请求头
         if(StrUtil.isBlank(token)){
-            //不存在，拦截
-            response.setStatus(401);
-            return false;
+            //不存在，拦截，公开接口作为未登录用户放行
+            timers.missingToken.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return reject(response, required);
         }
-        //2.基于token获取redis中的用户
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(RedisConstants.LOGIN_USER_KEY + token);
+        //2.基于token获取用户，先查本地缓存，未命中再查redis，同时按间隔刷新token有效期
+        UserDTO userDTO = loginSessionCache.get(token);
         //3.判断用户是否存在
-        if (userMap.isEmpty()) {
-            //4.不存在，拦截
-            response.setStatus(401);
-            return false;
+        if (userDTO == null) {
+            //4.不存在，拦截，公开接口作为未登录用户放行
+            timers.unauthorized.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return reject(response, required);
         }
-        //5.将查询到的Hash数据转换为UserDTO对象
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-        //6.存在，保存用户信息到ThreadLocal
+        //5.存在，保存用户信息到ThreadLocal
         UserHolder.saveUser(userDTO);
-        //7.刷新token有效期
-        stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY + token,RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        timers.passed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
-        //8.放行
+        //6.放行
         return true;
     }
 
+    private static boolean isRead(HttpServletRequest request) {
+        String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    private static boolean reject(HttpServletResponse response, boolean required) {
+        if (!required) {
+            return true;
+        }
+        response.setStatus(401);
+        return false;
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
-        HandlerInterceptor.super.afterCompletion(request, response, handler, ex);
+        //移除用户，避免线程复用时读到上一个请求的用户
+        UserHolder.removeUser();
+    }
+
+    private static final class Timers {
+        private final Timer passed;
+        private final Timer missingToken;
+        private final Timer unauthorized;
+
+        private Timers(boolean required) {
+            this.passed = timer("passed", required);
+            this.missingToken = timer("missing_token", required);
+            this.unauthorized = timer("unauthorized", required);
+        }
+
+        private static Timer timer(String result, boolean required) {
+            return Timer.builder("login.interceptor")
+                    .tag("result", result)
+                    .tag("required", String.valueOf(required))
+                    .register(Metrics.globalRegistry);
+        }
     }
 }
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_LOGOUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 登录会话的进程内缓存，按token缓存用户信息
+ * 命中时不访问redis，token有效期的刷新合并为每个token每隔一段时间最多一次EXPIRE
+ * 登出时通过redis的发布订阅频道通知各节点失效
+ */
+@Slf4j
+@Component
+public class LoginSessionCache implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final boolean enabled;
+    private final long refreshIntervalMillis;
+    private final Cache<String, Session> sessions;
+
+    public LoginSessionCache(StringRedisTemplate stringRedisTemplate,
+                             @Value("${hmdp.login.session-cache.enabled:true}") boolean enabled,
+                             @Value("${hmdp.login.session-cache.maximum-size:10000}") long maximumSize,
+                             @Value("${hmdp.login.session-cache.expire-seconds:300}") long expireSeconds,
+                             @Value("${hmdp.login.session-cache.refresh-interval-seconds:60}") long refreshIntervalSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = enabled;
+        this.refreshIntervalMillis = TimeUnit.SECONDS.toMillis(refreshIntervalSeconds);
+        // 本地存活时间必须小于token有效期，否则redis中的token过期后本地仍然放行
+        long maxExpireSeconds = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL) / 2;
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Math.min(expireSeconds, maxExpireSeconds), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 根据token获取登录用户，并按需刷新token有效期
+     * @return token不存在或已过期时返回null；每次返回新的副本，请求中修改用户信息不会影响缓存和其它请求
+     */
+    public UserDTO get(String token) {
+        String key = LOGIN_USER_KEY + token;
+        if (!enabled) {
+            UserDTO user = load(key);
+            if (user != null) {
+                stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES);
+            }
+            return user;
+        }
+        //1.查询本地缓存
+        Session session = sessions.getIfPresent(token);
+        long now = System.currentTimeMillis();
+        if (session == null) {
+            //2.未命中，查询redis，加载时顺便刷新有效期
+            UserDTO user = load(key);
+            if (user == null) {
+                return null;
+            }
+            stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES);
+            sessions.put(token, new Session(user, now));
+            return copy(user);
+        }
+        //3.命中，距离上次刷新超过间隔时才发送EXPIRE，并发请求中只有一个线程发送
+        long last = session.lastRefreshMillis.get();
+        if (now - last >= refreshIntervalMillis && session.lastRefreshMillis.compareAndSet(last, now)) {
+            Boolean exists = stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES);
+            if (!Boolean.TRUE.equals(exists)) {
+                // token已经在redis中被删除
+                sessions.invalidate(token);
+                return null;
+            }
+        }
+        return copy(session.user);
+    }
+
+    /**
+     * 失效本节点并通知其它节点失效
+     */
+    public void invalidateAll(String token) {
+        sessions.invalidate(token);
+        if (enabled) {
+            stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String token = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("收到登出通知，token：{}", token);
+        sessions.invalidate(token);
+    }
+
+    private UserDTO load(String key) {
+        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        if (userMap.isEmpty()) {
+            return null;
+        }
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    private static UserDTO copy(UserDTO user) {
+        UserDTO copy = new UserDTO();
+        copy.setId(user.getId());
+        copy.setNickName(user.getNickName());
+        copy.setIcon(user.getIcon());
+        return copy;
+    }
+
+    private static final class Session {
+        private final UserDTO user;
+        /**
+         * 上次刷新redis中token有效期的时间
+         */
+        private final AtomicLong lastRefreshMillis;
+
+        private Session(UserDTO user, long lastRefreshMillis) {
+            this.user = user;
+            this.lastRefreshMillis = new AtomicLong(lastRefreshMillis);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录每个mapper方法执行sql的耗时，指标为mybatis.statements，按mapper方法区分
+ * 拦截StatementHandler，只统计与数据库交互的时间，分页插件的count查询单独记为xxx_mpCount
+ */
+@Intercepts({
+        @Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class}),
+        @Signature(type = StatementHandler.class, method = "update", args = {Statement.class}),
+        @Signature(type = StatementHandler.class, method = "batch", args = {Statement.class})
+})
+public class MybatisMetricsInterceptor implements Interceptor {
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public MybatisMetricsInterceptor(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            timer(statementId(invocation.getTarget()), invocation.getMethod().getName())
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static String statementId(Object handler) {
+        // 实际的StatementHandler是RoutingStatementHandler，mappedStatement在它的delegate中
+        MetaObject metaObject = SystemMetaObject.forObject(handler);
+        while (metaObject.hasGetter("h")) {
+            // 被其它插件代理过时，先取出被代理的对象
+            metaObject = SystemMetaObject.forObject(metaObject.getValue("h.target"));
+        }
+        Object statement = metaObject.getValue("delegate.mappedStatement");
+        return statement instanceof MappedStatement ? ((MappedStatement) statement).getId() : "unknown";
+    }
+
+    private Timer timer(String statement, String operation) {
+        String key = statement + '#' + operation;
+        Timer timer = timers.get(key);
+        if (timer != null) {
+            return timer;
+        }
+        return timers.computeIfAbsent(key, k -> Timer.builder("mybatis.statements")
+                .tag("statement", statement)
+                .tag("operation", operation)
+                .register(registry));
+    }
+}
@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内一级缓存(L1)，位于Redis(L2)之前
+ * 每个key前缀一个独立的Caffeine缓存，按条目数和写入时间淘汰，准入策略为W-TinyLFU
+ * 各节点之间通过Redis的发布订阅频道广播失效消息来保证一致
+ * 一级缓存关闭时，HotKeyDetector探测到的热点key仍然缓存在本地，存活时间较短，降级后不再读取
+ */
+@Slf4j
+@Component
+public class NearCache implements MessageListener {
+
+    /**
+     * 空值占位，对应Redis中缓存的空字符串
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final boolean enabled;
+    private final long maximumSize;
+    private final long expireSeconds;
+
+    private final Map<String, Cache<String, Object>> regions = new ConcurrentHashMap<>();
+
+    private final HotKeyDetector hotKeyDetector;
+    /**
+     * 热点key的本地缓存，不分前缀
+     */
+    private final Cache<String, Object> hotCache;
+
+    public NearCache(StringRedisTemplate stringRedisTemplate, HotKeyDetector hotKeyDetector,
+                     @Value("${hmdp.cache.near.enabled:false}") boolean enabled,
+                     @Value("${hmdp.cache.near.maximum-size:10000}") long maximumSize,
+                     @Value("${hmdp.cache.near.expire-seconds:60}") long expireSeconds,
+                     @Value("${hmdp.cache.hot-key.max-hot-keys:1000}") long maxHotKeys,
+                     @Value("${hmdp.cache.hot-key.local-ttl-seconds:5}") long hotKeyTtlSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.hotKeyDetector = hotKeyDetector;
+        this.enabled = enabled;
+        this.maximumSize = maximumSize;
+        this.expireSeconds = expireSeconds;
+        this.hotCache = Caffeine.newBuilder()
+                .maximumSize(maxHotKeys)
+                .expireAfterWrite(hotKeyTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, hotCache, "near", "prefix", "hot-keys");
+        // 降级后不再读本地的值，清掉它，避免很快再次升级时读到降级前缓存的旧值
+        hotKeyDetector.addDemotionListener(hotCache::invalidate);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查询一级缓存
+     * @return 未命中或未开启时返回null，命中空值时返回NULL_VALUE
+     */
+    public Object get(String keyPrefix, String key) {
+        // 每次查询都计入热点探测
+        return lookup(keyPrefix, key, hotKeyDetector.record(key));
+    }
+
+    /**
+     * 同一次查询中的再次检查，例如拿到互斥锁之后，不重复计入热点探测
+     */
+    public Object peek(String keyPrefix, String key) {
+        return lookup(keyPrefix, key, hotKeyDetector.isHot(key));
+    }
+
+    private Object lookup(String keyPrefix, String key, boolean hot) {
+        if (enabled) {
+            return region(keyPrefix).getIfPresent(key);
+        }
+        return hot ? hotCache.getIfPresent(key) : null;
+    }
+
+    public void put(String keyPrefix, String key, Object value) {
+        Object cached = value == null ? NULL_VALUE : value;
+        if (enabled) {
+            region(keyPrefix).put(key, cached);
+        } else if (hotKeyDetector.isHot(key)) {
+            hotCache.put(key, cached);
+        }
+    }
+
+    /**
+     * 只失效本节点的一级缓存
+     */
+    public void invalidate(String key) {
+        hotCache.invalidate(key);
+        // 前缀数量很少，直接逐个失效
+        for (Cache<String, Object> cache : regions.values()) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 失效本节点并通知其它节点失效
+     */
+    public void invalidateAll(String key) {
+        if (!enabled && !hotKeyDetector.isEnabled()) {
+            return;
+        }
+        // 热点key可能缓存在其它节点，一级缓存关闭时也要广播
+        invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量失效，一条消息通知其它节点，消息体为换行分隔的key
+     */
+    public void invalidateAll(Collection<String> keys) {
+        if (keys.isEmpty() || (!enabled && !hotKeyDetector.isEnabled())) {
+            return;
+        }
+        keys.forEach(this::invalidate);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, String.join("\n", keys));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("收到缓存失效通知，key：{}", body);
+        // 批量失效的消息包含多个key
+        for (String key : body.split("\n")) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * 每个前缀的缓存创建时注册命中、未命中、淘汰、条目数指标，名称为cache.*，标签cache=near、prefix=前缀
+     */
+    private Cache<String, Object> region(String keyPrefix) {
+        return regions.computeIfAbsent(keyPrefix, prefix -> CaffeineCacheMetrics.monitor(Metrics.globalRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(maximumSize)
+                        .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                        .recordStats()
+                        .<String, Object>build(),
+                "near", "prefix", prefix));
+    }
+}
@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 接口限流，限流规则在application.yaml的hmdp.rate-limit.rules.<value>中配置
+ * 可以按用户、按ip、按接口全局三个维度分别限制，由RateLimitInterceptor处理
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+
+    /**
+     * 限流规则的名称
+     */
+    String value();
+}
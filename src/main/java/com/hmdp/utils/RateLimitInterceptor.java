@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 处理@RateLimit注解，在redis中用lua脚本原子地检查并计数
+ * 被redis拒绝的用户或ip在本地记录到脚本估算的可以通过的时间，期间的请求直接拒绝，不再访问redis
+ * 接口整体的维度不在本地记录，否则一次拒绝会让本节点所有用户都被拒绝
+ */
+@Slf4j
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(List.class);
+    }
+
+    private static final String TOO_MANY_REQUESTS = JSONUtil.toJsonStr(Result.fail("请求过于频繁，请稍后再试"));
+
+    private StringRedisTemplate stringRedisTemplate;//与LoginInterceptor一样由MvcConfig创建，采用构造函数注入
+    private RateLimitProperties properties;
+
+    /**
+     * 本地拒绝名单：计数器key -> 拒绝到的时间戳(毫秒)
+     */
+    private final Cache<String, Long> blocked = Caffeine.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    public RateLimitInterceptor(StringRedisTemplate stringRedisTemplate, RateLimitProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = properties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //1.判断接口是否需要限流
+        if (!properties.isEnabled() || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        RateLimit rateLimit = ((HandlerMethod) handler).getMethodAnnotation(RateLimit.class);
+        if (rateLimit == null) {
+            return true;
+        }
+        RateLimitProperties.Rule rule = properties.getRules().get(rateLimit.value());
+        if (rule == null) {
+            return true;
+        }
+        //2.按配置的维度生成计数器key
+        String prefix = RATE_LIMIT_KEY + rateLimit.value() + ":";
+        List<String> keys = new ArrayList<>(3);
+        List<RateLimitProperties.Limit> limits = new ArrayList<>(3);
+        UserDTO user = UserHolder.getUser();
+        if (rule.getUser() != null && user != null) {
+            keys.add(prefix + "user:" + user.getId());
+            limits.add(rule.getUser());
+        }
+        if (rule.getIp() != null) {
+            keys.add(prefix + "ip:" + IpUtils.clientIp(request, properties.getIpHeader()));
+            limits.add(rule.getIp());
+        }
+        String globalKey = prefix + "global";
+        if (rule.getGlobal() != null) {
+            keys.add(globalKey);
+            limits.add(rule.getGlobal());
+        }
+        if (keys.isEmpty()) {
+            return true;
+        }
+        //3.本地预过滤，当前窗口内已经被拒绝过的直接拒绝
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            Long until = blocked.getIfPresent(key);
+            if (until != null && until > now) {
+                return reject(response);
+            }
+        }
+        //4.redis中原子地检查所有维度并计数
+        List<String> args = new ArrayList<>(1 + 2 * limits.size());
+        args.add(String.valueOf(now));
+        for (RateLimitProperties.Limit limit : limits) {
+            args.add(String.valueOf(limit.getLimit()));
+            args.add(String.valueOf(TimeUnit.SECONDS.toMillis(limit.getWindowSeconds())));
+        }
+        List<?> result;
+        try {
+            result = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, args.toArray());
+        } catch (Exception e) {
+            // redis不可用时放行，不能因为限流导致接口不可用
+            log.error("限流检查失败，放行请求，规则：{}", rateLimit.value(), e);
+            return true;
+        }
+        if (result == null || result.isEmpty() || ((Number) result.get(0)).intValue() == 0) {
+            return true;
+        }
+        //5.超限，在本地记录到脚本估算的可以通过的时间
+        String key = keys.get(((Number) result.get(0)).intValue() - 1);
+        if (!globalKey.equals(key)) {
+            blocked.put(key, now + ((Number) result.get(1)).longValue());
+        }
+        return reject(response);
+    }
+
+    private boolean reject(HttpServletResponse response) throws Exception {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(TOO_MANY_REQUESTS);
+        return false;
+    }
+}
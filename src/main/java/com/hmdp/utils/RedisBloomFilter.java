@@ -0,0 +1,238 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_KEY;
+
+/**
+ * 基于redis位图的布隆过滤器，用于拦截一定不存在的id，避免缓存穿透
+ * 位图为bloom:<name>，加载完成后写入标记bloom:<name>:ready，标记不存在时(未加载、redis重启)视为可能存在
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    private static final DefaultRedisScript<Long> CHECK_SCRIPT;
+    static {
+        try {
+            String text = new ResourceScriptSource(new ClassPathResource("bloom_check.lua")).getScriptAsString();
+            CHECK_SCRIPT = new DefaultRedisScript<>(text, Long.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("加载lua脚本失败：bloom_check.lua", e);
+        }
+    }
+
+    /**
+     * redis字符串最大512MB
+     */
+    private static final long MAX_BITS = 1L << 32;
+
+    private final String name;
+    private final String key;
+    private final String readyKey;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final boolean enabled;
+    private final long bits;
+    private final int hashes;
+    private final double expectedFpp;
+    /**
+     * 标记值，位数或哈希函数个数变化后需要重建
+     */
+    private final String readyValue;
+
+    private final Counter present;
+    private final Counter absent;
+    private final Counter notReady;
+    private volatile double fillRatio;
+    /**
+     * 本节点写入失败过，在下次重建开始前视为未加载，删除redis中的标记也失败时由它触发重建
+     */
+    private volatile boolean stale;
+
+    public RedisBloomFilter(String name, StringRedisTemplate stringRedisTemplate, boolean enabled,
+                            long expectedInsertions, double fpp, long maxMemoryMb, MeterRegistry registry) {
+        this.name = name;
+        this.key = BLOOM_KEY + name;
+        this.readyKey = key + ":ready";
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = enabled;
+        //1.m = -n * ln(p) / (ln2)^2，不超过内存上限
+        long n = Math.max(1L, expectedInsertions);
+        long optimalBits = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = Math.max(64L, Math.min(Math.min(optimalBits, maxMemoryMb * 8 * 1024 * 1024), MAX_BITS));
+        //2.k = m / n * ln2
+        this.hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        //3.达到预计元素个数时的误判率 (1 - e^(-kn/m))^k
+        this.expectedFpp = Math.pow(1 - Math.exp(-(double) hashes * n / bits), hashes);
+        this.readyValue = bits + ":" + hashes;
+        if (bits < optimalBits) {
+            log.warn("布隆过滤器[{}]受内存上限限制，位数{}，预计误判率{}", name, bits, expectedFpp);
+        }
+        //4.指标
+        Gauge.builder("bloom.filter.bits", this, f -> f.bits).tag("name", name).register(registry);
+        Gauge.builder("bloom.filter.hashes", this, f -> f.hashes).tag("name", name).register(registry);
+        Gauge.builder("bloom.filter.memory", this, f -> f.bits / 8).baseUnit("bytes").tag("name", name).register(registry);
+        Gauge.builder("bloom.filter.fpp.expected", this, f -> f.expectedFpp).tag("name", name).register(registry);
+        Gauge.builder("bloom.filter.fpp.estimated", this, RedisBloomFilter::estimatedFpp).tag("name", name).register(registry);
+        Gauge.builder("bloom.filter.fill.ratio", this, f -> f.fillRatio).tag("name", name).register(registry);
+        this.present = Counter.builder("bloom.filter.checks").tag("name", name).tag("result", "present").register(registry);
+        this.absent = Counter.builder("bloom.filter.checks").tag("name", name).tag("result", "absent").register(registry);
+        this.notReady = Counter.builder("bloom.filter.checks").tag("name", name).tag("result", "not_ready").register(registry);
+    }
+
+    /**
+     * 返回false时id一定不存在；过滤器关闭、未加载或查询失败时返回true
+     */
+    public boolean mightContain(Long id) {
+        if (!enabled || id == null) {
+            return true;
+        }
+        try {
+            long[] offsets = offsets(id);
+            String[] args = new String[offsets.length + 1];
+            args[0] = readyValue;
+            for (int i = 0; i < offsets.length; i++) {
+                args[i + 1] = String.valueOf(offsets[i]);
+            }
+            Long result = stringRedisTemplate.execute(CHECK_SCRIPT, Arrays.asList(key, readyKey), (Object[]) args);
+            if (result != null && result == 0L) {
+                absent.increment();
+                return false;
+            }
+            (result != null && result == 1L ? present : notReady).increment();
+            return true;
+        } catch (Exception e) {
+            // 过滤器只是拦截，失败时放行
+            log.error("查询布隆过滤器[{}]失败", name, e);
+            return true;
+        }
+    }
+
+    public void put(Long id) {
+        putAll(Collections.singletonList(id));
+    }
+
+    /**
+     * 新数据写入数据库后调用
+     * 写入失败时不抛出异常，删除标记让BloomFilterLoader重建，否则这些id会一直被误判为不存在
+     */
+    public void putAll(Collection<Long> ids) {
+        if (!enabled || ids.isEmpty()) {
+            return;
+        }
+        try {
+            load(ids);
+        } catch (Exception e) {
+            log.error("写入布隆过滤器[{}]失败，删除标记等待重建", name, e);
+            stale = true;
+            try {
+                stringRedisTemplate.delete(readyKey);
+            } catch (Exception ex) {
+                log.error("删除布隆过滤器[{}]标记失败", name, ex);
+            }
+        }
+    }
+
+    /**
+     * 重建时批量写入，一次pipeline，失败时抛出异常，由重建流程处理
+     */
+    public void load(Collection<Long> ids) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (Long id : ids) {
+                    for (long offset : offsets(id)) {
+                        operations.opsForValue().setBit(key, offset, true);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * 达到预计元素个数时的误判率，受内存上限限制时高于配置的fpp
+     */
+    public double getExpectedFpp() {
+        return expectedFpp;
+    }
+
+    public boolean isReady() {
+        return !stale && Objects.equals(readyValue, stringRedisTemplate.opsForValue().get(readyKey));
+    }
+
+    /**
+     * 重建前清空位图和标记，重建期间查询全部放行
+     */
+    public void clear() {
+        // 之后失败的写入会重新标记，重建完成后再重建一次
+        stale = false;
+        stringRedisTemplate.delete(Arrays.asList(readyKey, key));
+    }
+
+    public void markReady() {
+        stringRedisTemplate.opsForValue().set(readyKey, readyValue);
+    }
+
+    /**
+     * BITCOUNT统计填充率，用于估算当前误判率
+     */
+    public void refreshFillRatio() {
+        Long count = stringRedisTemplate.execute(
+                (RedisCallback<Long>) connection -> connection.bitCount(key.getBytes(StandardCharsets.UTF_8)));
+        fillRatio = count == null ? 0 : (double) count / bits;
+    }
+
+    private double estimatedFpp() {
+        return Math.pow(fillRatio, hashes);
+    }
+
+    /**
+     * 双重哈希 g_i(x) = h1(x) + i * h2(x)，用一次murmur128得到k个位置
+     */
+    long[] offsets(long id) {
+        long[] hash = MurmurHash.hash128(ByteBuffer.allocate(Long.BYTES).putLong(id).array());
+        long[] offsets = new long[hashes];
+        long combined = hash[0];
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % bits;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+}
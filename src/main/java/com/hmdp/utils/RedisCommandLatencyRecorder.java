@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.metrics.CommandLatencyCollector;
+import io.lettuce.core.metrics.CommandLatencyId;
+import io.lettuce.core.metrics.CommandMetrics;
+import io.lettuce.core.protocol.ProtocolKeyword;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把lettuce统计的每条redis命令的耗时记录为redis.commands指标，按命令区分
+ * 只记录到MeterRegistry，不使用lettuce自带的周期性事件发布
+ */
+public class RedisCommandLatencyRecorder implements CommandLatencyCollector {
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public RedisCommandLatencyRecorder(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @param firstResponseLatency 发出命令到收到第一个字节的耗时，纳秒
+     * @param completionLatency 发出命令到命令完成的耗时，纳秒
+     */
+    @Override
+    public void recordCommandLatency(SocketAddress local, SocketAddress remote, ProtocolKeyword commandType,
+                                     long firstResponseLatency, long completionLatency) {
+        timer(commandType.name()).record(completionLatency, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String command) {
+        Timer timer = timers.get(command);
+        if (timer != null) {
+            return timer;
+        }
+        return timers.computeIfAbsent(command, c -> Timer.builder("redis.commands")
+                .tag("command", c)
+                .register(registry));
+    }
+
+    @Override
+    public void shutdown() {
+        timers.clear();
+    }
+
+    @Override
+    public Map<CommandLatencyId, CommandMetrics> retrieveMetrics() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+}
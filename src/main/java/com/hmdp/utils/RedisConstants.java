@@ -5,18 +5,54 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_LOGOUT_CHANNEL = "login:logout";
+
+    public static final String RATE_LIMIT_KEY = "limit:";
+    public static final String BLOOM_KEY = "bloom:";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_SHOP_TYPE_TTL = 30L;
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type:";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop-type:version";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+    public static final String LOCK_KEY = "lock:";
+    public static final String LOCK_RELEASED_CHANNEL = "lock:released";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DEAD_LETTER_KEY = "stream.orders.dlq";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_COUNT_KEY = "blog:liked:count:";
+    public static final String BLOG_LIKED_DIRTY_KEY = "blog:liked:dirty";
+    public static final String BLOG_LIKED_RECONCILED_KEY = "blog:liked:reconciled";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_EPOCH_KEY = "blog:hot:epoch";
+    public static final String BLOG_HOT_MAINTAINED_KEY = "blog:hot:maintained";
+    public static final String BLOG_HOT_SEEDED_KEY = "blog:hot:seeded";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHOR_KEY = "feed:big-authors";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String USER_SIGN_STATS_KEY = "sign:stats:";
+    public static final String VISIT_UV_KEY = "visit:uv:";
+    public static final String VISIT_PV_KEY = "visit:pv:";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FANS_KEY = "fans:";
+    public static final String FOLLOW_BUILT_KEY = "follow:built";
+    public static final String FOLLOW_REBUILD_UNFOLLOWS_KEY = "follow:rebuild:unfollows";
 }
@@ -8,4 +8,8 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    /**
+     * 重建一次的耗时(毫秒)，只有提前刷新的数据才有
+     */
+    private Long delta;
 }
@@ -1,40 +1,235 @@
 package com.hmdp.utils;
 
 
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
      * 开始时间戳，表示是以某一时刻开始的秒数
      */
     private static final long BEGIN_TIMESTAMP=1640999820L;
+    /**
+     * 序列号的位数
+     */
+    private static final int COUNT_BITS = 32;
+    /**
+     * 号段使用到该比例时预取下一个号段
+     */
+    private static final double PREFETCH_RATIO = 0.8;
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final ExecutorService SEGMENT_PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("id-segment-").setDaemon(true).build());
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 号段模式：每次用INCRBY从redis租用一段序列号，在本地用原子计数器发放
+     */
+    private final boolean segmentEnabled;
+    private final long segmentSize;
 
-    private StringRedisTemplate stringRedisTemplate;
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    /**
+     * 已发放过的最大秒数，用于应对时钟回拨
+     */
+    private final AtomicLong lastSecond = new AtomicLong();
+    private volatile long lastWarnedSecond;
+    private volatile Day today;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id.segment.enabled:false}") boolean segmentEnabled,
+                         @Value("${hmdp.id.segment.size:1000}") long segmentSize) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentEnabled = segmentEnabled;
+        this.segmentSize = segmentSize;
     }
 
     public long nextId(String keyPrefix){
+        long start = System.nanoTime();
+        try {
+            return generate(keyPrefix);
+        } finally {
+            timer(keyPrefix).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private long generate(String keyPrefix) {
         //1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long nowSecond = currentSecond();
         long timestamp= nowSecond-BEGIN_TIMESTAMP;
         //2.生成序列号，利用redis的自增长，要增加时间戳以保证每天的订单量重头开始计算，否则一直积累会超限
-        //2.1获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        //2.1获取当前日期，精确到天，同一天内复用格式化结果
+        String date = dateOf(nowSecond);
         //2.2自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = segmentEnabled
+                ? nextCountFromSegment(keyPrefix, date)
+                : stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, date));
+
+        //3.拼接返回，由于前面的时间戳和系列号都以字符串返回，所以采用位运算移动相加
+        return timestamp << COUNT_BITS | count;
+
+    }
+
+    /**
+     * 时钟回拨时继续使用上次的秒数，序列号来自按天自增的计数器，仍然保证唯一，且id不会变小
+     */
+    private long currentSecond() {
+        long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        long last = lastSecond.get();
+        while (now > last) {
+            if (lastSecond.compareAndSet(last, now)) {
+                return now;
+            }
+            last = lastSecond.get();
+        }
+        // 同一秒内只告警一次，避免回拨期间刷屏
+        if (now < last && lastWarnedSecond != last) {
+            lastWarnedSecond = last;
+            log.warn("检测到时钟回拨{}秒，沿用上次的时间戳", last - now);
+        }
+        return last;
+    }
+
+    private String dateOf(long nowSecond) {
+        long epochDay = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        Day day = today;
+        if (day == null || day.epochDay != epochDay) {
+            day = new Day(epochDay, LocalDate.ofEpochDay(epochDay).format(DATE_FORMATTER));
+            today = day;
+        }
+        return day.date;
+    }
+
+    private Timer timer(String keyPrefix) {
+        Timer timer = timers.get(keyPrefix);
+        if (timer != null) {
+            return timer;
+        }
+        return timers.computeIfAbsent(keyPrefix, prefix -> Timer.builder("id.generate")
+                .tag("prefix", prefix)
+                .tag("mode", segmentEnabled ? "segment" : "incr")
+                .register(Metrics.globalRegistry));
+    }
+
+    private static String counterKey(String keyPrefix, String date) {
+        return "icr:" + keyPrefix + ":" + date;
+    }
+
+    private long nextCountFromSegment(String keyPrefix, String date) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.date.equals(date)) {
+                long count = segment.cursor.incrementAndGet();
+                if (count <= segment.max) {
+                    // 恰好有一个线程会走到预取点
+                    if (count == segment.prefetchAt) {
+                        prefetch(buffer, date);
+                    }
+                    return count;
+                }
+            }
+            // 号段用完或者跨天，切换号段
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    Segment next = buffer.next;
+                    buffer.next = null;
+                    // 预取比同步加载晚返回时，预取到的号段比当前号段小，使用它会让同一天的id变小，丢弃
+                    boolean usable = next != null && next.date.equals(date)
+                            && (segment == null || !segment.date.equals(date) || next.max > segment.max);
+                    buffer.current = usable ? next : loadSegment(keyPrefix, date);
+                }
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String date) {
+        if (!buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        SEGMENT_PREFETCH_EXECUTOR.execute(() -> {
+            try {
+                Segment next = loadSegment(buffer.keyPrefix, date);
+                synchronized (buffer) {
+                    buffer.next = next;
+                }
+            } catch (Exception e) {
+                // 预取失败不影响发号，号段用完时会同步加载
+                log.error("预取id号段失败，keyPrefix：{}", buffer.keyPrefix, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    private Segment loadSegment(String keyPrefix, String date) {
+        // INCRBY返回号段的最大值，号段为(max - segmentSize, max]
+        Long max = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, date), segmentSize);
+        Metrics.counter("id.segment.loads", "prefix", keyPrefix).increment();
+        long start = max - segmentSize;
+        return new Segment(date, start, max, start + Math.max(1L, (long) (segmentSize * PREFETCH_RATIO)));
+    }
+
+    private static final class Day {
+        private final long epochDay;
+        private final String date;
+
+        private Day(long epochDay, String date) {
+            this.epochDay = epochDay;
+            this.date = date;
+        }
+    }
+
+    private static final class Segment {
+        private final String date;
+        private final long max;
+        private final long prefetchAt;
+        /**
+         * 最近一次发放的序列号
+         */
+        private final AtomicLong cursor;
+
+        private Segment(String date, long start, long max, long prefetchAt) {
+            this.date = date;
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+            this.cursor = new AtomicLong(start);
+        }
+    }
 
-        //3.拼接返回，由于前面的时间戳和系列号都以字符串返回，所以采用位运算移动相加,32最后也需要定义为常量
-        return timestamp << 32 | count;
+    private static final class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
 
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
     }
 
 }
@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_KEY;
+
+
+/**
+ * 创建RedisReentrantLock，并负责本节点所有锁的看门狗续约和释放通知
+ * 看门狗每隔租约的1/3给本节点持有的锁续约，节点宕机后锁在一个租约内自动过期
+ * 锁释放时通过发布订阅通知等待方，等待方不需要轮询
+ */
+@Slf4j
+@Component
+public class RedisLockFactory implements MessageListener {
+
+    static final DefaultRedisScript<Long> LOCK_SCRIPT = script("lock.lua");
+    static final DefaultRedisScript<Long> UNLOCK_SCRIPT = script("unlock.lua");
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = script("renew.lua");
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 节点标识，和线程id一起作为锁的持有者标识
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final long leaseMillis;
+
+    /**
+     * 本节点持有、需要看门狗续约的锁：key -> 持有者标识
+     */
+    private final Map<String, String> renewals = new ConcurrentHashMap<>();
+
+    /**
+     * 等待锁释放的key
+     */
+    private final Map<String, CompletableFuture<Void>> waiters = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("lock-watchdog-").setDaemon(true).build());
+
+    public RedisLockFactory(StringRedisTemplate stringRedisTemplate,
+                            @Value("${hmdp.lock.lease-ms:30000}") long leaseMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.leaseMillis = leaseMillis;
+        long period = Math.max(1L, leaseMillis / 3);
+        watchdog.scheduleAtFixedRate(this::renewAll, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param name 锁名或者是业务名，key为lock:name
+     */
+    public RedisReentrantLock getLock(String name) {
+        return new RedisReentrantLock(LOCK_KEY + name, this);
+    }
+
+    StringRedisTemplate getStringRedisTemplate() {
+        return stringRedisTemplate;
+    }
+
+    long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    String ownerOfCurrentThread() {
+        return nodeId + ":" + Thread.currentThread().getId();
+    }
+
+    void startRenewal(String key, String owner) {
+        renewals.put(key, owner);
+    }
+
+    /**
+     * 只移除owner自己的续约，释放锁之后同一节点的其它线程可能已经拿到锁并登记了续约
+     */
+    void stopRenewal(String key, String owner) {
+        renewals.remove(key, owner);
+    }
+
+    /**
+     * 登记等待，需要在尝试加锁之前调用，才不会错过加锁失败之后发出的释放通知
+     */
+    CompletableFuture<Void> waiter(String key) {
+        return waiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+    }
+
+    private void renewAll() {
+        for (Map.Entry<String, String> entry : renewals.entrySet()) {
+            try {
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                        Collections.singletonList(entry.getKey()),
+                        entry.getValue(), String.valueOf(leaseMillis));
+                if (renewed == null || renewed == 0) {
+                    // 锁已经不属于自己，停止续约
+                    log.warn("锁续约失败，锁已丢失：{}", entry.getKey());
+                    renewals.remove(entry.getKey(), entry.getValue());
+                }
+            } catch (Exception e) {
+                // redis暂时不可用，下一轮继续续约
+                log.error("锁续约异常：{}", entry.getKey(), e);
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        CompletableFuture<Void> waiter = waiters.remove(key);
+        if (waiter != null) {
+            waiter.complete(null);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        watchdog.shutdownNow();
+    }
+
+    private static DefaultRedisScript<Long> script(String location) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(Long.class);
+        return script;
+    }
+}
@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASED_CHANNEL;
+
+/**
+ * 基于redis hash的可重入锁，由RedisLockFactory创建
+ * 加锁、解锁、续约都由lua脚本原子完成，持有者为节点id:线程id，同一线程可以重入
+ * 不指定租约时由看门狗自动续约，等待锁时阻塞在释放通知上，不轮询
+ */
+@Slf4j
+public class RedisReentrantLock implements ILock {
+
+    private final String key;
+    private final RedisLockFactory factory;
+
+    RedisReentrantLock(String key, RedisLockFactory factory) {
+        this.key = key;
+        this.factory = factory;
+    }
+
+    /**
+     * 不等待，租约固定为timeoutSec，不续约
+     */
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        return acquire(factory.ownerOfCurrentThread(), TimeUnit.SECONDS.toMillis(timeoutSec)) < 0;
+    }
+
+    /**
+     * 不等待，持有期间由看门狗续约
+     */
+    public boolean tryLock() {
+        String owner = factory.ownerOfCurrentThread();
+        if (acquire(owner, factory.getLeaseMillis()) < 0) {
+            factory.startRenewal(key, owner);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 最多等待waitTime，持有期间由看门狗续约
+     */
+    public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+        String owner = factory.ownerOfCurrentThread();
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        while (true) {
+            //1.先登记等待再加锁，加锁失败后发出的释放通知不会丢失
+            CompletableFuture<Void> waiter = factory.waiter(key);
+            long ttl = acquire(owner, factory.getLeaseMillis());
+            if (ttl < 0) {
+                factory.startRenewal(key, owner);
+                return true;
+            }
+            //2.超过等待时间，加锁失败
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            //3.等待释放通知，最多等到锁的租约结束，持有方宕机时不会一直等下去
+            long wait = ttl > 0 ? Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(ttl)) : remaining;
+            try {
+                waiter.get(wait, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ignored) {
+                // 重新尝试加锁
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override
+    public void unlock() {
+        String owner = factory.ownerOfCurrentThread();
+        Long count = factory.getStringRedisTemplate().execute(
+                RedisLockFactory.UNLOCK_SCRIPT,
+                Arrays.asList(key, LOCK_RELEASED_CHANNEL),
+                owner, String.valueOf(factory.getLeaseMillis()));
+        if (count == null || count < 0) {
+            // 租约已过期被其它线程拿到，或者根本没有持有
+            log.warn("释放的锁不是当前线程持有的：{}", key);
+            return;
+        }
+        if (count == 0) {
+            // 重入全部释放，停止续约
+            factory.stopRenewal(key, owner);
+        }
+    }
+
+    /**
+     * @return 加锁成功返回-1，否则返回锁的剩余租约(毫秒)
+     */
+    private long acquire(String owner, long leaseMillis) {
+        Long ttl = factory.getStringRedisTemplate().execute(
+                RedisLockFactory.LOCK_SCRIPT,
+                Collections.singletonList(key),
+                owner, String.valueOf(leaseMillis));
+        return ttl == null ? 0 : ttl;
+    }
+}
@@ -0,0 +1,242 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.dto.VisitStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.hmdp.utils.RedisConstants.VISIT_PV_KEY;
+import static com.hmdp.utils.RedisConstants.VISIT_UV_KEY;
+
+/**
+ * 店铺、博文详情的访问统计，每天每个对象一个HyperLogLog记录访客(uv)，一个计数器记录访问次数(pv)
+ * HyperLogLog最多占用12KB，与访问量无关；访问先记在本地，定时用一次pipeline批量PFADD、INCRBY
+ */
+@Slf4j
+@Component
+public class VisitCounter {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String ipHeader;
+    private final int maxPending;
+    private final int retentionDays;
+
+    /**
+     * 记录访问时持有读锁，刷新时持有写锁替换缓冲区，保证替换后旧的缓冲区不会再被写入
+     */
+    private final ReadWriteLock bufferLock = new ReentrantReadWriteLock();
+    /**
+     * type:id:yyyyMMdd -> 本批次的访客
+     */
+    private Map<String, Set<String>> visitors = new ConcurrentHashMap<>();
+    /**
+     * type:id:yyyyMMdd -> 本批次的访问次数
+     */
+    private Map<String, LongAdder> views = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Counter dropped = Counter.builder("visit.dropped").register(Metrics.globalRegistry);
+    private final Timer flushTimer = Timer.builder("visit.flush").register(Metrics.globalRegistry);
+
+    public VisitCounter(StringRedisTemplate stringRedisTemplate,
+                        @Value("${hmdp.rate-limit.ip-header:}") String ipHeader,
+                        @Value("${hmdp.visit.max-pending:100000}") int maxPending,
+                        @Value("${hmdp.visit.retention-days:90}") int retentionDays) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ipHeader = ipHeader;
+        this.maxPending = maxPending;
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * 记录一次访问，登录用户按用户id去重，未登录按ip去重
+     */
+    public void record(String type, Long id, HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        String visitor = user != null ? user.getId().toString() : "ip:" + IpUtils.clientIp(request, ipHeader);
+        String field = type + ":" + id + ":" + LocalDate.now().format(DAY);
+        bufferLock.readLock().lock();
+        try {
+            views.computeIfAbsent(field, k -> new LongAdder()).increment();
+            // 缓冲的访客数有上限，超出的访客本批次不计入uv，pv照常计数
+            if (pending.get() >= maxPending) {
+                dropped.increment();
+                return;
+            }
+            if (visitors.computeIfAbsent(field, k -> ConcurrentHashMap.newKeySet()).add(visitor)) {
+                pending.incrementAndGet();
+            }
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 把本批次的访问写入redis
+     */
+    @Scheduled(fixedDelayString = "${hmdp.visit.flush-interval-ms:1000}")
+    public void flush() {
+        //1.替换缓冲区
+        Map<String, Set<String>> batchVisitors;
+        Map<String, LongAdder> batchViews;
+        bufferLock.writeLock().lock();
+        try {
+            if (views.isEmpty()) {
+                return;
+            }
+            batchVisitors = visitors;
+            batchViews = views;
+            visitors = new ConcurrentHashMap<>();
+            views = new ConcurrentHashMap<>();
+            pending.set(0);
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+        //2.一次pipeline写入，每个key只需要一条PFADD和一条INCRBY，过期时间每次刷新时顺延
+        long start = System.nanoTime();
+        try {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) {
+                    batchViews.forEach((field, count) -> {
+                        Set<String> members = batchVisitors.get(field);
+                        if (members != null) {
+                            operations.opsForHyperLogLog().add(VISIT_UV_KEY + field, members.toArray(new String[0]));
+                            operations.expire(VISIT_UV_KEY + field, retentionDays, TimeUnit.DAYS);
+                        }
+                        operations.opsForValue().increment(VISIT_PV_KEY + field, count.sum());
+                        operations.expire(VISIT_PV_KEY + field, retentionDays, TimeUnit.DAYS);
+                    });
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.error("访问统计写入redis失败，{}条记录放回缓冲区下次重试", batchViews.size(), e);
+            mergeBack(batchVisitors, batchViews);
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 写入失败的批次合并回当前的缓冲区，与record一样受maxPending限制，超出的访客不计入uv
+     * pipeline中途失败时已执行的INCRBY会在重试时重复计数，PFADD重复执行不影响uv
+     */
+    private void mergeBack(Map<String, Set<String>> batchVisitors, Map<String, LongAdder> batchViews) {
+        bufferLock.readLock().lock();
+        try {
+            batchViews.forEach((field, count) -> views.computeIfAbsent(field, k -> new LongAdder()).add(count.sum()));
+            batchVisitors.forEach((field, members) -> {
+                Set<String> live = visitors.computeIfAbsent(field, k -> ConcurrentHashMap.newKeySet());
+                for (String visitor : members) {
+                    if (pending.get() >= maxPending) {
+                        dropped.increment();
+                    } else if (live.add(visitor)) {
+                        pending.incrementAndGet();
+                    }
+                }
+            });
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    /**
+     * 查询[begin, end]内的访问统计，每天的uv、pv和整个范围合并去重后的uv，一次pipeline完成
+     * @param begin 为空时查询最近7天，早于保留天数的部分不查询
+     * @param end 为空时为今天
+     */
+    public VisitStats query(String type, Long id, LocalDate begin, LocalDate end) {
+        LocalDate today = LocalDate.now();
+        if (end == null || end.isAfter(today)) {
+            end = today;
+        }
+        LocalDate earliest = today.minusDays(retentionDays - 1);
+        if (begin == null) {
+            begin = end.minusDays(6);
+        }
+        if (begin.isBefore(earliest)) {
+            begin = earliest;
+        }
+        List<String> dates = new ArrayList<>();
+        List<String> uvKeys = new ArrayList<>();
+        List<String> pvKeys = new ArrayList<>();
+        for (LocalDate date = begin; !date.isAfter(end); date = date.plusDays(1)) {
+            String field = type + ":" + id + ":" + date.format(DAY);
+            dates.add(date.toString());
+            uvKeys.add(VISIT_UV_KEY + field);
+            pvKeys.add(VISIT_PV_KEY + field);
+        }
+        if (dates.isEmpty()) {
+            VisitStats stats = new VisitStats();
+            stats.setUv(0L);
+            stats.setPv(0L);
+            stats.setDays(new ArrayList<>());
+            return stats;
+        }
+        //1.每天的PFCOUNT，多个key的PFCOUNT返回合并后的去重数，最后MGET每天的pv
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                uvKeys.forEach(key -> operations.opsForHyperLogLog().size(key));
+                operations.opsForHyperLogLog().size(uvKeys.toArray(new String[0]));
+                operations.opsForValue().multiGet(pvKeys);
+                return null;
+            }
+        });
+        //2.组装结果
+        int n = dates.size();
+        List<?> pvs = (List<?>) results.get(n + 1);
+        List<VisitStats.Day> days = new ArrayList<>(n);
+        long totalPv = 0;
+        for (int i = 0; i < n; i++) {
+            Object pv = pvs.get(i);
+            VisitStats.Day day = new VisitStats.Day();
+            day.setDate(dates.get(i));
+            day.setUv(((Number) results.get(i)).longValue());
+            day.setPv(pv == null ? 0L : Long.parseLong(pv.toString()));
+            totalPv += day.getPv();
+            days.add(day);
+        }
+        VisitStats stats = new VisitStats();
+        stats.setUv(((Number) results.get(n)).longValue());
+        stats.setPv(totalPv);
+        stats.setDays(days);
+        return stats;
+    }
+}
@@ -0,0 +1,22 @@
+-- 1.参数列表
+-- 1.1.热门博文有序集合
+local hotKey = KEYS[1]
+-- 1.2.衰减的起点时间(毫秒)
+local epochKey = KEYS[2]
+-- 1.3.博文id
+local blogId = ARGV[1]
+-- 1.4.事件权重，取消点赞时为负数
+local weight = tonumber(ARGV[2])
+-- 1.5.当前时间(毫秒)
+local now = tonumber(ARGV[3])
+-- 1.6.半衰期(毫秒)
+local halfLife = tonumber(ARGV[4])
+
+-- 2.前向衰减：不修改旧分数，新事件的分数按距起点的时间放大，越新的事件权重越大
+local epoch = tonumber(redis.call('get', epochKey))
+if not epoch then
+    epoch = now
+    redis.call('set', epochKey, epoch)
+end
+-- 3.累加分数
+return redis.call('zincrby', hotKey, weight * 2 ^ ((now - epoch) / halfLife), blogId)
@@ -0,0 +1,21 @@
+-- 1.参数列表
+-- 1.1.热门博文有序集合
+local hotKey = KEYS[1]
+-- 1.2.衰减的起点时间(毫秒)
+local epochKey = KEYS[2]
+-- 1.3.当前时间(毫秒)
+local now = tonumber(ARGV[1])
+-- 1.4.半衰期(毫秒)
+local halfLife = tonumber(ARGV[2])
+-- 1.5.保留的最大博文数
+local maxSize = tonumber(ARGV[3])
+
+-- 2.把起点移到当前时间，所有分数同比例缩小，排名不变，避免分数无限增长
+local epoch = tonumber(redis.call('get', epochKey))
+if epoch and epoch < now then
+    local factor = 2 ^ (-(now - epoch) / halfLife)
+    redis.call('zunionstore', hotKey, 1, hotKey, 'WEIGHTS', tostring(factor))
+end
+redis.call('set', epochKey, now)
+-- 3.只保留分数最高的maxSize篇
+return redis.call('zremrangebyrank', hotKey, 0, -maxSize - 1)
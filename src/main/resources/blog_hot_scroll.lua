@@ -0,0 +1,40 @@
+-- 1.参数列表
+-- 1.1.热门博文有序集合
+local hotKey = KEYS[1]
+-- 1.2.衰减的起点时间(毫秒)
+local epochKey = KEYS[2]
+-- 1.3.从数据库重建完成的标记
+local seededKey = KEYS[3]
+-- 1.4.上一页最小的分数，第一页为空字符串
+local max = ARGV[1]
+-- 1.5.上一页分数对应的衰减起点，第一页为空字符串
+local lastEpoch = tonumber(ARGV[2])
+-- 1.6.要跳过的条数：上一页中分数等于最小分数的条数，第一页为0
+local offset = ARGV[3]
+-- 1.7.每页条数
+local count = ARGV[4]
+-- 1.8.半衰期(毫秒)
+local halfLife = tonumber(ARGV[5])
+
+-- 2.排行还没有从数据库重建，由调用方查询数据库
+if redis.call('exists', seededKey) == 0 then
+    return {0}
+end
+local epoch = redis.call('get', epochKey)
+-- 3.第一页从最高分开始
+if max == '' then
+    max = '+inf'
+elseif lastEpoch and epoch and tonumber(epoch) ~= lastEpoch then
+    -- 3.1.翻页期间起点已经移动，所有分数已经同比例缩小，上一页的分数按同样的比例换算
+    -- 与blog_hot_renormalize.lua的WEIGHTS一样先tostring，只移动过一次时换算结果与集合中的分数完全一致
+    local factor = tonumber(tostring(2 ^ (-(tonumber(epoch) - lastEpoch) / halfLife)))
+    max = string.format('%.17g', tonumber(max) * factor)
+end
+-- 4.ZREVRANGEBYSCORE key max -inf WITHSCORES LIMIT offset count
+local page = redis.call('zrevrangebyscore', hotKey, max, '-inf', 'WITHSCORES', 'LIMIT', offset, count)
+-- 5.返回{1, 起点, id1, 分数1, id2, 分数2, ...}
+local result = {1, epoch or ''}
+for i = 1, #page do
+    result[#result + 1] = page[i]
+end
+return result
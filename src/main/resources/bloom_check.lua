@@ -0,0 +1,19 @@
+-- 1.参数列表
+-- 1.1.布隆过滤器的位图
+local bitsKey = KEYS[1]
+-- 1.2.加载完成的标记，值为位数:哈希函数个数
+local readyKey = KEYS[2]
+-- 1.3.当前配置对应的标记值
+local expected = ARGV[1]
+
+-- 2.还没有加载完成或者配置已变化，无法判断，返回-1
+if redis.call('get', readyKey) ~= expected then
+    return -1
+end
+-- 3.所有位都为1才可能存在，ARGV[2]开始是各哈希函数对应的位
+for i = 2, #ARGV do
+    if redis.call('getbit', bitsKey, ARGV[i]) == 0 then
+        return 0
+    end
+end
+return 1
@@ -0,0 +1,30 @@
+-- 1.参数列表
+-- 1.1.点赞用户集合
+local likedKey = KEYS[1]
+-- 1.2.点赞数
+local countKey = KEYS[2]
+-- 1.3.点赞数有变化、待刷到数据库的博文id集合
+local dirtyKey = KEYS[3]
+-- 1.4.用户id
+local userId = ARGV[1]
+-- 1.5.博文id
+local blogId = ARGV[2]
+
+-- 2.点赞数不存在时，按点赞集合的大小初始化
+if redis.call('exists', countKey) == 0 then
+    redis.call('set', countKey, redis.call('scard', likedKey))
+end
+-- 3.已点赞则取消，未点赞则点赞
+local liked
+if redis.call('sismember', likedKey, userId) == 1 then
+    redis.call('srem', likedKey, userId)
+    redis.call('decr', countKey)
+    liked = 0
+else
+    redis.call('sadd', likedKey, userId)
+    redis.call('incr', countKey)
+    liked = 1
+end
+-- 4.记录待刷盘的博文
+redis.call('sadd', dirtyKey, blogId)
+return liked
@@ -0,0 +1,17 @@
+-- 可重入锁加锁，hash结构：field为持有者标识，value为重入次数
+-- 1.参数列表
+-- 1.1.锁的key
+local key = KEYS[1]
+-- 1.2.持有者标识：节点id:线程id
+local owner = ARGV[1]
+-- 1.3.租约时长(毫秒)
+local leaseTime = ARGV[2]
+
+-- 2.锁不存在，或者已经被自己持有，重入次数加一并重置租约
+if redis.call('exists', key) == 0 or redis.call('hexists', key, owner) == 1 then
+    redis.call('hincrby', key, owner, 1)
+    redis.call('pexpire', key, leaseTime)
+    return -1
+end
+-- 3.被其它线程持有，返回剩余租约，等待方最多等这么久再重试
+return redis.call('pttl', key)
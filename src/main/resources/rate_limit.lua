@@ -0,0 +1,44 @@
+-- 滑动窗口限流：用当前窗口和上一个窗口两个计数器，按上一个窗口剩余的比例加权估算滑动窗口内的请求数
+-- 所有维度都通过才计数，任意一个维度超限则整体拒绝
+-- 返回{0}表示通过，{维度序号, 需要等待的毫秒数}表示拒绝
+-- 1.参数列表
+-- 1.1.KEYS[i]：第i个维度的计数器前缀
+-- 1.2.ARGV[1]：当前时间戳(毫秒)
+local now = tonumber(ARGV[1])
+-- 1.3.ARGV[2i]、ARGV[2i+1]：第i个维度的上限和窗口长度(毫秒)
+
+-- 2.检查每个维度
+local counters = {}
+for i, key in ipairs(KEYS) do
+    local limit = tonumber(ARGV[2 * i])
+    local window = tonumber(ARGV[2 * i + 1])
+    local index = math.floor(now / window)
+    local currentKey = key .. ':' .. index
+    local current = tonumber(redis.call('get', currentKey) or '0')
+    local previous = tonumber(redis.call('get', key .. ':' .. (index - 1)) or '0')
+    -- 上一个窗口还在滑动窗口内的比例
+    local weight = 1 - (now - index * window) / window
+    if previous * weight + current + 1 > limit then
+        -- 2.1.超限，计算按当前计数最早什么时候能通过：估算值 previous * weight + current + 1 <= limit
+        local admitAt
+        if current + 1 <= limit then
+            -- 当前窗口内，上一个窗口的权重降到 (limit - 1 - current) / previous 时通过
+            admitAt = index * window + window * (1 - (limit - 1 - current) / previous)
+        else
+            -- 当前窗口已满，下一个窗口中当前计数成为上一个窗口，权重降到 (limit - 1) / current 时通过
+            local ratio = current > 0 and (limit - 1) / current or 0
+            admitAt = (index + 1) * window + window * math.min(1, math.max(0, 1 - ratio))
+        end
+        -- 返回维度的序号和需要等待的毫秒数，并发的请求只会让等待更久，这是下限
+        return { i, math.max(1, math.ceil(admitAt - now)) }
+    end
+    counters[i] = { currentKey, window }
+end
+
+-- 3.全部通过，计数
+for _, counter in ipairs(counters) do
+    redis.call('incr', counter[1])
+    -- 计数器至少要保留到下一个窗口结束
+    redis.call('pexpire', counter[1], counter[2] * 2)
+end
+return { 0 }
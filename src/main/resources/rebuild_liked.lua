@@ -0,0 +1,14 @@
+-- 1.参数列表
+-- 1.1.点赞数有变化、待刷到数据库的博文id集合
+local dirtyKey = KEYS[1]
+-- 1.2.之后每两个key为一篇博文的点赞用户集合、点赞数，ARGV为对应的博文id
+
+-- 2.按点赞集合的大小重写点赞数，与like.lua互斥执行，不会覆盖并发的点赞
+for i, blogId in ipairs(ARGV) do
+    local likedKey = KEYS[2 * i]
+    local countKey = KEYS[2 * i + 1]
+    redis.call('set', countKey, redis.call('scard', likedKey))
+    -- 3.记录待刷盘的博文
+    redis.call('sadd', dirtyKey, blogId)
+end
+return #ARGV
@@ -0,0 +1,5 @@
+-- 看门狗续约，仍然由自己持有时重置租约
+if redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
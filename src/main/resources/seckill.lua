@@ -0,0 +1,46 @@
+-- 1.参数列表
+-- 1.1.库存key，hash结构：stock、beginTime、endTime
+local stockKey = KEYS[1]
+-- 1.2.订单key，set结构：已下单的用户id
+local orderKey = KEYS[2]
+-- 1.3.订单消息队列
+local streamKey = KEYS[3]
+-- 1.4.优惠券id
+local voucherId = ARGV[1]
+-- 1.5.用户id
+local userId = ARGV[2]
+-- 1.6.订单id
+local orderId = ARGV[3]
+-- 1.7.当前时间戳(毫秒)
+local now = tonumber(ARGV[4])
+
+-- 2.脚本业务
+local voucher = redis.call('hmget', stockKey, 'stock', 'beginTime', 'endTime')
+-- 2.1.秒杀券还未加载到redis，返回4
+if not voucher[1] then
+    return 4
+end
+-- 2.2.判断秒杀是否开始、是否结束
+if now < tonumber(voucher[2]) then
+    return 5
+end
+if now > tonumber(voucher[3]) then
+    return 6
+end
+-- 2.3.判断库存是否充足
+if tonumber(voucher[1]) <= 0 then
+    -- 库存不足，返回1
+    return 1
+end
+-- 2.4.判断用户是否下单 SISMEMBER orderKey userId
+if redis.call('sismember', orderKey, userId) == 1 then
+    -- 存在，说明是重复下单，返回2
+    return 2
+end
+-- 2.5.扣库存
+redis.call('hincrby', stockKey, 'stock', -1)
+-- 2.6.下单（保存用户）
+redis.call('sadd', orderKey, userId)
+-- 2.7.发送消息到队列中 XADD stream.orders * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
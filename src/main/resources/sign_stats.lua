@@ -0,0 +1,22 @@
+-- 1.参数列表
+-- 1.1.本月的签到记录 sign:<userId>:yyyyMM
+local signKey = KEYS[1]
+-- 1.2.签到统计的缓存 sign:stats:<userId>
+local statsKey = KEYS[2]
+-- 1.3.统计时读取的天数，即今天是本月的第几天
+local length = ARGV[1]
+-- 1.4.统计时读到的本月签到记录
+local bits = tonumber(ARGV[2])
+-- 1.5.统计结果
+local stats = ARGV[3]
+-- 1.6.缓存有效期，秒
+local ttl = ARGV[4]
+
+-- 2.统计之后有新的签到，结果已经过时，不写缓存，下一次查询重新统计
+local current = redis.call('bitfield', signKey, 'GET', 'u' .. length, 0)[1]
+if current ~= bits then
+    return 0
+end
+-- 3.签到记录没有变化，写入缓存
+redis.call('set', statsKey, stats, 'EX', ttl)
+return 1
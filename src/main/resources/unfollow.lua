@@ -0,0 +1,22 @@
+-- 1.参数列表
+-- 1.1.取关用户关注的人的集合 follows:<userId>
+local followsKey = KEYS[1]
+-- 1.2.被取关用户的粉丝集合 fans:<followUserId>
+local fansKey = KEYS[2]
+-- 1.3.集合已经建好的标记
+local builtKey = KEYS[3]
+-- 1.4.重建期间发生的取关
+local unfollowsKey = KEYS[4]
+-- 1.5.被取关的用户id
+local followUserId = ARGV[1]
+-- 1.6.取关的用户id
+local userId = ARGV[2]
+
+-- 2.从双方的集合中移除
+redis.call('srem', followsKey, followUserId)
+redis.call('srem', fansKey, userId)
+-- 3.标记不存在说明正在重建，重建可能在取关之前读到了这一行，记录下来，重建结束前按数据库修正
+if redis.call('exists', builtKey) == 0 then
+    redis.call('sadd', unfollowsKey, userId .. ':' .. followUserId)
+end
+return 0
@@ -0,0 +1,25 @@
+-- 可重入锁解锁，重入次数减到0时删除锁并通知等待方
+-- 1.参数列表
+-- 1.1.锁的key
+local key = KEYS[1]
+-- 1.2.释放锁的通知频道
+local channel = KEYS[2]
+-- 1.3.持有者标识
+local owner = ARGV[1]
+-- 1.4.租约时长(毫秒)
+local leaseTime = ARGV[2]
+
+-- 2.不是自己持有的锁，返回-1
+if redis.call('hexists', key, owner) == 0 then
+    return -1
+end
+-- 3.重入次数减一，还有剩余时重置租约
+local count = redis.call('hincrby', key, owner, -1)
+if count > 0 then
+    redis.call('pexpire', key, leaseTime)
+    return count
+end
+-- 4.全部释放，删除锁并通知等待方
+redis.call('del', key)
+redis.call('publish', channel, key)
+return 0
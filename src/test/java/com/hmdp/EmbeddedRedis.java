@@ -0,0 +1,69 @@
+package com.hmdp;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * 单元测试和基准测试使用的内嵌redis，每个测试类或JMH fork启动一个独立的redis-server进程，不依赖外部环境
+ */
+public class EmbeddedRedis implements AutoCloseable {
+
+    private final RedisServer server;
+    private final LettuceConnectionFactory connectionFactory;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    private EmbeddedRedis(RedisServer server, int port) {
+        this.server = server;
+        this.connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        this.connectionFactory.afterPropertiesSet();
+        this.stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        this.byteRedisTemplate = new RedisTemplate<>();
+        this.byteRedisTemplate.setConnectionFactory(connectionFactory);
+        this.byteRedisTemplate.setKeySerializer(RedisSerializer.string());
+        this.byteRedisTemplate.setValueSerializer(RedisSerializer.byteArray());
+        this.byteRedisTemplate.afterPropertiesSet();
+    }
+
+    public static EmbeddedRedis start() throws IOException {
+        int port = freePort();
+        RedisServer server = RedisServer.newRedisServer()
+                .port(port)
+                .setting("save \"\"")
+                .setting("appendonly no")
+                .build();
+        server.start();
+        return new EmbeddedRedis(server, port);
+    }
+
+    public StringRedisTemplate getStringRedisTemplate() {
+        return stringRedisTemplate;
+    }
+
+    public RedisTemplate<String, byte[]> getByteRedisTemplate() {
+        return byteRedisTemplate;
+    }
+
+    public LettuceConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
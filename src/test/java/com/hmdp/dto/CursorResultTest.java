@@ -0,0 +1,52 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Blog;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CursorResultTest {
+
+    private static List<Blog> blogs(int count) {
+        List<Blog> blogs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Blog blog = new Blog();
+            blog.setId(100L - i);
+            blog.setLiked(10 * (count - i));
+            blogs.add(blog);
+        }
+        return blogs;
+    }
+
+    @Test
+    void extraRowMeansMorePages() {
+        // 查询时多取一条，返回的列表去掉这一条，游标指向本页最后一条
+        CursorResult result = CursorResult.of(blogs(4), 3, blog -> blog.getLiked().longValue(), Blog::getId);
+        assertThat(result.getHasMore()).isTrue();
+        assertThat(result.getList()).hasSize(3);
+        assertThat(result.getLastId()).isEqualTo(98L);
+        assertThat(result.getLastSortKey()).isEqualTo(20L);
+    }
+
+    @Test
+    void shortPageIsLast() {
+        CursorResult result = CursorResult.of(blogs(3), 3, null, Blog::getId);
+        assertThat(result.getHasMore()).isFalse();
+        assertThat(result.getList()).hasSize(3);
+        assertThat(result.getLastId()).isEqualTo(98L);
+        // 只按id排序时没有排序字段
+        assertThat(result.getLastSortKey()).isNull();
+    }
+
+    @Test
+    void emptyPageHasNoCursor() {
+        CursorResult result = CursorResult.of(Collections.<Blog>emptyList(), 3, null, Blog::getId);
+        assertThat(result.getHasMore()).isFalse();
+        assertThat(result.getList()).isEmpty();
+        assertThat(result.getLastId()).isNull();
+    }
+}
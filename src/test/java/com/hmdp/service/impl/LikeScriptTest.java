@@ -0,0 +1,118 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_COUNT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DIRTY_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * like.lua的点赞计数和rebuild_liked.lua的点赞数重建
+ */
+class LikeScriptTest {
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static DefaultRedisScript<Long> likeScript;
+    private static DefaultRedisScript<Long> rebuildScript;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        likeScript = script("like.lua");
+        rebuildScript = script("rebuild_liked.lua");
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static DefaultRedisScript<Long> script(String location) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    private static Long like(long blogId, long userId) {
+        return stringRedisTemplate.execute(likeScript,
+                Arrays.asList(BLOG_LIKED_KEY + blogId, BLOG_LIKED_COUNT_KEY + blogId, BLOG_LIKED_DIRTY_KEY),
+                String.valueOf(userId), String.valueOf(blogId));
+    }
+
+    private static Long rebuild(long... blogIds) {
+        String[] keys = new String[blogIds.length * 2 + 1];
+        String[] args = new String[blogIds.length];
+        keys[0] = BLOG_LIKED_DIRTY_KEY;
+        for (int i = 0; i < blogIds.length; i++) {
+            args[i] = String.valueOf(blogIds[i]);
+            keys[2 * i + 1] = BLOG_LIKED_KEY + blogIds[i];
+            keys[2 * i + 2] = BLOG_LIKED_COUNT_KEY + blogIds[i];
+        }
+        return stringRedisTemplate.execute(rebuildScript, Arrays.asList(keys), (Object[]) args);
+    }
+
+    private static String count(long blogId) {
+        return stringRedisTemplate.opsForValue().get(BLOG_LIKED_COUNT_KEY + blogId);
+    }
+
+    @Test
+    void likeTogglesAndCounts() {
+        // 点赞数不存在时按集合大小初始化
+        stringRedisTemplate.opsForSet().add(BLOG_LIKED_KEY + 1, "7", "8", "9");
+        assertThat(like(1, 10)).isEqualTo(1L);
+        assertThat(count(1)).isEqualTo("4");
+        assertThat(like(1, 10)).isEqualTo(0L);
+        assertThat(count(1)).isEqualTo("3");
+        assertThat(stringRedisTemplate.opsForSet().members(BLOG_LIKED_DIRTY_KEY)).containsExactly("1");
+    }
+
+    @Test
+    void rebuildResetsCountsFromSets() {
+        stringRedisTemplate.opsForSet().add(BLOG_LIKED_KEY + 1, "7", "8");
+        stringRedisTemplate.opsForSet().add(BLOG_LIKED_KEY + 2, "7");
+        stringRedisTemplate.opsForValue().set(BLOG_LIKED_COUNT_KEY + 1, "100");
+        assertThat(rebuild(1, 2)).isEqualTo(2L);
+        assertThat(count(1)).isEqualTo("2");
+        assertThat(count(2)).isEqualTo("1");
+        assertThat(stringRedisTemplate.opsForSet().members(BLOG_LIKED_DIRTY_KEY)).containsExactlyInAnyOrder("1", "2");
+    }
+
+    @Test
+    void rebuildDoesNotLoseConcurrentLikes() {
+        CompletableFuture<Void> likes = CompletableFuture.runAsync(() -> {
+            for (long userId = 1; userId <= 500; userId++) {
+                like(1, userId);
+            }
+        });
+        while (!likes.isDone()) {
+            rebuild(1);
+        }
+        likes.join();
+        // SCARD和SET在同一个脚本中，重建不会覆盖两者之间的点赞
+        assertThat(count(1)).isEqualTo("500");
+        assertThat(stringRedisTemplate.opsForSet().size(BLOG_LIKED_KEY + 1)).isEqualTo(500L);
+    }
+}
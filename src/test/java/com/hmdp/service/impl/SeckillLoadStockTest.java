@@ -0,0 +1,116 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.entity.SeckillVoucher;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 库存重新加载时扣除stream中还没有落库的订单
+ */
+class SeckillLoadStockTest {
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static SeckillVoucherServiceImpl service;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        service = new SeckillVoucherServiceImpl();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static void order(long voucherId, long orderId) {
+        Map<String, String> value = new HashMap<>();
+        value.put("userId", String.valueOf(orderId));
+        value.put("voucherId", String.valueOf(voucherId));
+        value.put("id", String.valueOf(orderId));
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(SECKILL_ORDER_STREAM_KEY).ofMap(value));
+    }
+
+    private static List<MapRecord<String, Object, Object>> read(int count) {
+        return stringRedisTemplate.opsForStream().read(Consumer.from(SECKILL_ORDER_GROUP, "c1"),
+                StreamReadOptions.empty().count(count),
+                StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed()));
+    }
+
+    private static SeckillVoucher voucher(long voucherId, int stock) {
+        return new SeckillVoucher()
+                .setVoucherId(voucherId)
+                .setStock(stock)
+                .setBeginTime(LocalDateTime.now())
+                .setEndTime(LocalDateTime.now().plusDays(1));
+    }
+
+    private static String stock(long voucherId) {
+        return (String) stringRedisTemplate.opsForHash().get(SECKILL_STOCK_KEY + voucherId, "stock");
+    }
+
+    @Test
+    void subtractsPendingAndUndeliveredOrders() {
+        stringRedisTemplate.opsForStream().createGroup(SECKILL_ORDER_STREAM_KEY, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+        order(10, 1);
+        order(10, 2);
+        order(11, 3);
+        order(10, 4);
+        // 第一条已落库确认，第二、三条在pending-list，第四条还没有投递
+        List<MapRecord<String, Object, Object>> records = read(3);
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM_KEY, SECKILL_ORDER_GROUP, records.get(0).getId());
+        service.loadStock(voucher(10, 10));
+        service.loadStock(voucher(11, 0));
+        assertThat(stock(10)).isEqualTo("8");
+        // 不会出现负数
+        assertThat(stock(11)).isEqualTo("0");
+    }
+
+    @Test
+    void countsWholeStreamWithoutGroup() {
+        order(10, 1);
+        order(10, 2);
+        service.loadStock(voucher(10, 10));
+        assertThat(stock(10)).isEqualTo("8");
+    }
+
+    @Test
+    void keepsExistingStock() {
+        stringRedisTemplate.opsForHash().put(SECKILL_STOCK_KEY + 10, "stock", "3");
+        service.loadStock(voucher(10, 10));
+        assertThat(stock(10)).isEqualTo("3");
+    }
+}
@@ -0,0 +1,122 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * seckill.lua的下单资格判断：时间、库存、一人一单，以及通过后写入stream的订单
+ */
+class SeckillScriptTest {
+
+    private static final long VOUCHER_ID = 10;
+    private static final long NOW = 1_700_000_000_000L;
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static DefaultRedisScript<Long> script;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("seckill.lua"));
+        script.setResultType(Long.class);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static void loadStock(int stock, long beginTime, long endTime) {
+        Map<String, String> voucher = new HashMap<>();
+        voucher.put("stock", String.valueOf(stock));
+        voucher.put("beginTime", String.valueOf(beginTime));
+        voucher.put("endTime", String.valueOf(endTime));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_STOCK_KEY + VOUCHER_ID, voucher);
+    }
+
+    private static Long order(long userId, long orderId, long now) {
+        return stringRedisTemplate.execute(script,
+                Arrays.asList(SECKILL_STOCK_KEY + VOUCHER_ID, SECKILL_ORDER_KEY + VOUCHER_ID, SECKILL_ORDER_STREAM_KEY),
+                String.valueOf(VOUCHER_ID), String.valueOf(userId), String.valueOf(orderId), String.valueOf(now));
+    }
+
+    @Test
+    void rejectsOutsideSaleOrUnloaded() {
+        assertThat(order(1, 100, NOW)).isEqualTo(4L);
+        loadStock(10, NOW, NOW + 1000);
+        assertThat(order(1, 100, NOW - 1)).isEqualTo(5L);
+        assertThat(order(1, 100, NOW + 1001)).isEqualTo(6L);
+        assertThat(stringRedisTemplate.opsForStream().size(SECKILL_ORDER_STREAM_KEY)).isZero();
+    }
+
+    @Test
+    void admitsOncePerUser() {
+        loadStock(2, NOW, NOW + 1000);
+        assertThat(order(1, 100, NOW)).isEqualTo(0L);
+        // 重复下单不扣库存
+        assertThat(order(1, 101, NOW)).isEqualTo(2L);
+        assertThat(order(2, 102, NOW)).isEqualTo(0L);
+        // 库存已经扣完
+        assertThat(order(3, 103, NOW)).isEqualTo(1L);
+        assertThat(stringRedisTemplate.opsForHash().get(SECKILL_STOCK_KEY + VOUCHER_ID, "stock")).isEqualTo("0");
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .read(StreamOffset.fromStart(SECKILL_ORDER_STREAM_KEY));
+        assertThat(records).hasSize(2);
+        assertThat(records.get(0).getValue())
+                .containsEntry("userId", "1")
+                .containsEntry("voucherId", String.valueOf(VOUCHER_ID))
+                .containsEntry("id", "100");
+    }
+
+    @Test
+    void neverOversells() {
+        loadStock(10, NOW, NOW + 1000);
+        AtomicInteger admitted = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            long userId = i;
+            futures.add(CompletableFuture.runAsync(() -> {
+                if (order(userId, 1000 + userId, NOW) == 0L) {
+                    admitted.incrementAndGet();
+                }
+            }));
+        }
+        futures.forEach(CompletableFuture::join);
+        assertThat(admitted.get()).isEqualTo(10);
+        assertThat(stringRedisTemplate.opsForSet().size(SECKILL_ORDER_KEY + VOUCHER_ID)).isEqualTo(10L);
+        assertThat(stringRedisTemplate.opsForStream().size(SECKILL_ORDER_STREAM_KEY)).isEqualTo(10L);
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.when;
+
+/**
+ * 店铺类型的写操作在事务提交后更新版本号，没有修改数据时不更新
+ */
+class ShopTypeVersionTest {
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private ShopTypeMapper mapper;
+    private ShopTypeServiceImpl service;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+        mapper = Mockito.mock(ShopTypeMapper.class);
+        service = new ShopTypeServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static String version() {
+        return stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+    }
+
+    @Test
+    void bumpsImmediatelyWithoutTransaction() {
+        when(mapper.updateById(any(ShopType.class))).thenReturn(1);
+        assertThat(service.updateById(new ShopType().setId(1L).setSort(2))).isTrue();
+        assertThat(version()).isEqualTo("1");
+    }
+
+    @Test
+    void bumpsAfterCommit() {
+        when(mapper.deleteBatchIds(anyCollection())).thenReturn(2);
+        when(mapper.update(any(), any())).thenReturn(1);
+        TransactionSynchronizationManager.initSynchronization();
+        assertThat(service.removeByIds(Arrays.asList(1L, 2L))).isTrue();
+        assertThat(service.update(new UpdateWrapper<ShopType>().set("sort", 1).eq("id", 3L))).isTrue();
+        // 提交前其它节点不会看到新版本
+        assertThat(version()).isNull();
+        TransactionSynchronizationUtils.triggerAfterCommit();
+        assertThat(version()).isEqualTo("2");
+    }
+
+    @Test
+    void rollbackDoesNotBump() {
+        when(mapper.insert(any(ShopType.class))).thenReturn(1);
+        TransactionSynchronizationManager.initSynchronization();
+        assertThat(service.save(new ShopType().setName("美食"))).isTrue();
+        // 回滚时不触发afterCommit
+        TransactionSynchronizationManager.clearSynchronization();
+        assertThat(version()).isNull();
+    }
+
+    @Test
+    void unchangedDoesNotBump() {
+        when(mapper.deleteById(any())).thenReturn(0);
+        assertThat(service.removeById(1L)).isFalse();
+        assertThat(version()).isNull();
+    }
+
+    @Test
+    void chainedUpdateIsBlocked() {
+        assertThatThrownBy(() -> service.update()).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> service.lambdaUpdate()).isInstanceOf(UnsupportedOperationException.class);
+    }
+}
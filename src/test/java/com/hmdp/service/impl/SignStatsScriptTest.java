@@ -0,0 +1,80 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+import static com.hmdp.utils.RedisConstants.USER_SIGN_STATS_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * sign_stats.lua：本月签到记录与统计时读到的一致才写入统计缓存
+ */
+class SignStatsScriptTest {
+
+    private static final String SIGN_KEY = USER_SIGN_KEY + "1:202610";
+    private static final String STATS_KEY = USER_SIGN_STATS_KEY + "1";
+    private static final int TODAY = 5;
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static DefaultRedisScript<Long> script;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("sign_stats.lua"));
+        script.setResultType(Long.class);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static Long cacheStats(long bits) {
+        return stringRedisTemplate.execute(script, Arrays.asList(SIGN_KEY, STATS_KEY),
+                String.valueOf(TODAY), String.valueOf(bits), "{\"streak\":1}", "60");
+    }
+
+    @Test
+    void writesWhenUnchanged() {
+        // 本月还没有签到记录
+        assertThat(cacheStats(0)).isEqualTo(1L);
+        assertThat(stringRedisTemplate.opsForValue().get(STATS_KEY)).isEqualTo("{\"streak\":1}");
+        assertThat(stringRedisTemplate.getExpire(STATS_KEY)).isBetween(1L, 60L);
+        flush();
+        // 第1天和第3天签到，第一天在最高位
+        stringRedisTemplate.opsForValue().setBit(SIGN_KEY, 0, true);
+        stringRedisTemplate.opsForValue().setBit(SIGN_KEY, 2, true);
+        assertThat(cacheStats(0b10100)).isEqualTo(1L);
+    }
+
+    @Test
+    void skipsWhenSignedAfterRead() {
+        stringRedisTemplate.opsForValue().setBit(SIGN_KEY, 0, true);
+        // 统计时只读到第1天，之后第5天(今天)签到
+        stringRedisTemplate.opsForValue().setBit(SIGN_KEY, TODAY - 1, true);
+        assertThat(cacheStats(0b10000)).isZero();
+        assertThat(stringRedisTemplate.hasKey(STATS_KEY)).isFalse();
+    }
+}
@@ -0,0 +1,75 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.hmdp.utils.RedisConstants.FANS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_BUILT_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_REBUILD_UNFOLLOWS_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * unfollow.lua：移除双方集合中的关系，重建期间(标记不存在)记录取关供重建结束前修正
+ */
+class UnfollowScriptTest {
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static DefaultRedisScript<Long> script;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("unfollow.lua"));
+        script.setResultType(Long.class);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+        stringRedisTemplate.opsForSet().add(FOLLOWS_KEY + 1, "2", "3");
+        stringRedisTemplate.opsForSet().add(FANS_KEY + 2, "1");
+    }
+
+    private static void unfollow(long userId, long followUserId) {
+        stringRedisTemplate.execute(script,
+                Arrays.asList(FOLLOWS_KEY + userId, FANS_KEY + followUserId, FOLLOW_BUILT_KEY, FOLLOW_REBUILD_UNFOLLOWS_KEY),
+                String.valueOf(followUserId), String.valueOf(userId));
+    }
+
+    @Test
+    void removesBothSidesWhenBuilt() {
+        stringRedisTemplate.opsForValue().set(FOLLOW_BUILT_KEY, "1");
+        unfollow(1, 2);
+        assertThat(stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + 1)).containsExactly("3");
+        assertThat(stringRedisTemplate.hasKey(FANS_KEY + 2)).isFalse();
+        assertThat(stringRedisTemplate.hasKey(FOLLOW_REBUILD_UNFOLLOWS_KEY)).isFalse();
+    }
+
+    @Test
+    void recordsUnfollowDuringRebuild() {
+        unfollow(1, 2);
+        assertThat(stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + 1)).containsExactly("3");
+        assertThat(stringRedisTemplate.opsForSet().members(FOLLOW_REBUILD_UNFOLLOWS_KEY)).containsExactly("1:2");
+    }
+}
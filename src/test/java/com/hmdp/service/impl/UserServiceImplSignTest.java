@@ -0,0 +1,56 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserServiceImplSignTest {
+
+    private static final YearMonth OCTOBER = YearMonth.of(2026, 10);
+
+    private static long signedAll(int days) {
+        return (1L << days) - 1;
+    }
+
+    @Test
+    void streakEndsToday() {
+        // 今天(最低位)签到，昨天没有
+        assertThat(UserServiceImpl.streakOf(new long[]{0b101, 0}, OCTOBER, 3)).isEqualTo(1);
+        // 今天没有签到
+        assertThat(UserServiceImpl.streakOf(new long[]{0b110, signedAll(30)}, OCTOBER, 3)).isZero();
+    }
+
+    @Test
+    void streakCrossesMonths() {
+        // 10月1日到18日全部签到，9月最后5天签到
+        long[] bits = {signedAll(18), 0b11111, signedAll(31)};
+        assertThat(UserServiceImpl.streakOf(bits, OCTOBER, 18)).isEqualTo(23);
+    }
+
+    @Test
+    void streakCoversWholeWindow() {
+        // 整个窗口都签到时等于窗口的天数，调用方据此继续读取更早的月份
+        long[] bits = {signedAll(18), signedAll(30), signedAll(31)};
+        int days = UserServiceImpl.daysOf(OCTOBER, 18, bits.length);
+        assertThat(days).isEqualTo(18 + 30 + 31);
+        assertThat(UserServiceImpl.streakOf(bits, OCTOBER, 18)).isEqualTo(days);
+    }
+
+    @Test
+    void daysOfHandlesLeapYears() {
+        assertThat(UserServiceImpl.daysOf(YearMonth.of(2024, 3), 10, 3)).isEqualTo(10 + 29 + 31);
+        assertThat(UserServiceImpl.daysOf(YearMonth.of(2023, 3), 10, 3)).isEqualTo(10 + 28 + 31);
+    }
+
+    @Test
+    void signedDaysFromBits() {
+        // 第一天在最高位，最后一天在最低位
+        assertThat(UserServiceImpl.signedDays(0b10101, 5)).containsExactly(1, 3, 5);
+        assertThat(UserServiceImpl.signedDays(1L << 30, 31)).containsExactly(1);
+        assertThat(UserServiceImpl.signedDays(1, 31)).containsExactly(31);
+        assertThat(UserServiceImpl.signedDays(0, 31)).isEmpty();
+        assertThat(UserServiceImpl.signedDays(signedAll(31), 31)).hasSize(31).startsWith(1).endsWith(31);
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_EPOCH_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * blog_hot_scroll.lua的滚动分页：分数相同的博文跨页不重复不遗漏，翻页期间起点移动时换算上一页的分数
+ */
+class BlogHotRankingTest {
+
+    private static final long HALF_LIFE_HOURS = 24;
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static BlogHotRanking ranking;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        ranking = new BlogHotRanking(stringRedisTemplate, HALF_LIFE_HOURS, 10000, 1, 2, 10);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static void score(long blogId, double score) {
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, String.valueOf(blogId), score);
+    }
+
+    /**
+     * 从第一页翻到最后一页
+     */
+    private static List<Long> scrollAll(int count) {
+        List<Long> ids = new ArrayList<>();
+        BlogHotRanking.Scroll scroll = ranking.scroll(null, null, 0, count);
+        while (!scroll.getIds().isEmpty()) {
+            ids.addAll(scroll.getIds());
+            scroll = ranking.scroll(scroll.getMinScore(), scroll.getEpoch(), scroll.getOffset(), count);
+        }
+        return ids;
+    }
+
+    @Test
+    void returnsNullBeforeSeeded() {
+        score(1, 5);
+        assertThat(ranking.scroll(null, null, 0, 10)).isNull();
+    }
+
+    @Test
+    void pagesThroughTies() {
+        ranking.markSeeded();
+        stringRedisTemplate.opsForValue().set(BLOG_HOT_EPOCH_KEY, "1000");
+        score(1, 5);
+        score(2, 4);
+        score(3, 4);
+        score(4, 4);
+        score(5, 2);
+        // 分数相同时按成员倒序
+        BlogHotRanking.Scroll first = ranking.scroll(null, null, 0, 2);
+        assertThat(first.getIds()).containsExactly(1L, 4L);
+        assertThat(first.getMinScore()).isEqualTo(4.0);
+        assertThat(first.getOffset()).isEqualTo(1);
+        assertThat(first.getEpoch()).isEqualTo(1000L);
+        // 整页分数都等于上一页的最小分数，跳过的条数累加
+        BlogHotRanking.Scroll second = ranking.scroll(first.getMinScore(), first.getEpoch(), first.getOffset(), 2);
+        assertThat(second.getIds()).containsExactly(3L, 2L);
+        assertThat(second.getOffset()).isEqualTo(3);
+        assertThat(scrollAll(2)).containsExactly(1L, 4L, 3L, 2L, 5L);
+        assertThat(scrollAll(1)).containsExactly(1L, 4L, 3L, 2L, 5L);
+    }
+
+    @Test
+    void rescalesCursorAfterRenormalize() {
+        ranking.markSeeded();
+        // 起点在一个半衰期之前，移动起点后分数约缩小一半
+        long epoch = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(HALF_LIFE_HOURS);
+        stringRedisTemplate.opsForValue().set(BLOG_HOT_EPOCH_KEY, String.valueOf(epoch));
+        score(1, 8.3);
+        score(2, 8.3);
+        score(3, 4.1);
+        score(4, 1.7);
+        BlogHotRanking.Scroll first = ranking.scroll(null, null, 0, 1);
+        assertThat(first.getIds()).containsExactly(2L);
+        ranking.renormalize();
+        BlogHotRanking.Scroll second = ranking.scroll(first.getMinScore(), first.getEpoch(), first.getOffset(), 2);
+        // 换算后的分数与集合中缩小后的分数一致，分数相同的第二篇不会被跳过，第一篇也不会重复
+        assertThat(second.getIds()).containsExactly(1L, 3L);
+        assertThat(second.getEpoch()).isGreaterThan(epoch);
+    }
+}
@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * queryBatchWithPassThrough：命中、数据库回源和不存在的id写入空值
+ */
+class CacheClientBatchTest {
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static RedisTemplate<String, byte[]> byteRedisTemplate;
+    private static CacheRebuildExecutor rebuildExecutor;
+    private static RedisLockFactory lockFactory;
+    private static CacheClient cacheClient;
+
+    private final AtomicInteger dbCalls = new AtomicInteger();
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        byteRedisTemplate = redis.getByteRedisTemplate();
+        HotKeyDetector hotKeyDetector = new HotKeyDetector(true, 10, 200, 0.5, 1000, 4096);
+        rebuildExecutor = new CacheRebuildExecutor(hotKeyDetector, 2, 100, 1000);
+        lockFactory = new RedisLockFactory(stringRedisTemplate, 30000);
+        cacheClient = new CacheClient(stringRedisTemplate, byteRedisTemplate, new JsonCacheCodec(),
+                new NearCache(stringRedisTemplate, hotKeyDetector, false, 10000, 60, 1000, 5),
+                lockFactory, rebuildExecutor, 3000, CacheClient.TimeoutPolicy.FALLBACK_DB, 1.0, 100);
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        rebuildExecutor.stop();
+        lockFactory.destroy();
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static Shop shop(Long id) {
+        return new Shop().setId(id).setName("102茶餐厅").setScore(37);
+    }
+
+    /**
+     * 只有偶数id存在
+     */
+    private Map<Long, Shop> loadEven(Collection<Long> ids) {
+        dbCalls.incrementAndGet();
+        Map<Long, Shop> shops = new HashMap<>();
+        ids.stream().filter(id -> id % 2 == 0).forEach(id -> shops.put(id, shop(id)));
+        return shops;
+    }
+
+    private Map<Long, Shop> query(List<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, ids, Shop.class, this::loadEven, 30L, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void writesNullMarkerForMissingIds() {
+        Map<Long, Shop> shops = query(Arrays.asList(4L, 1L, 2L, 3L));
+        // 按传入的顺序返回存在的对象
+        assertThat(shops.keySet()).containsExactly(4L, 2L);
+        assertThat(byteRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 1)).isEmpty();
+        assertThat(byteRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 3)).isEmpty();
+        assertThat(stringRedisTemplate.getExpire(CACHE_SHOP_KEY + 1, TimeUnit.SECONDS))
+                .isBetween(1L, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL));
+        assertThat(byteRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 2)).isNotEmpty();
+        // 第二次查询全部命中，包括空值，不再查数据库
+        assertThat(query(Arrays.asList(1L, 2L, 3L, 4L)).keySet()).containsExactly(2L, 4L);
+        assertThat(dbCalls).hasValue(1);
+    }
+
+    @Test
+    void nullFallbackResultMeansNoneExist() {
+        Map<Long, Shop> shops = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, Arrays.asList(5L, 6L), Shop.class,
+                ids -> null, 30L, TimeUnit.MINUTES);
+        assertThat(shops).isEmpty();
+        assertThat(byteRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 5)).isEmpty();
+        assertThat(byteRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 6)).isEmpty();
+    }
+}
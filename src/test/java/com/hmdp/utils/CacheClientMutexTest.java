@@ -0,0 +1,172 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASED_CHANNEL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * queryWithMutex的跨节点重建：两个CacheClient模拟两个节点，共用一个redis，各自订阅重建完成的通知
+ */
+class CacheClientMutexTest {
+
+    private static final long WAIT_TIMEOUT_MILLIS = 3000;
+    private static final long DB_MILLIS = 300;
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static Node nodeA;
+    private static Node nodeB;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        nodeA = new Node();
+        nodeB = new Node();
+        nodeA.awaitSubscribed();
+        nodeB.awaitSubscribed();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        nodeA.close();
+        nodeB.close();
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static Shop shop(Long id) {
+        return new Shop().setId(id).setName("102茶餐厅").setScore(37);
+    }
+
+    @Test
+    void concurrentMissesQueryDatabaseOnce() {
+        AtomicInteger dbCalls = new AtomicInteger();
+        Function<Long, Shop> dbFallback = id -> {
+            dbCalls.incrementAndGet();
+            try {
+                Thread.sleep(DB_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return shop(id);
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(20);
+        try {
+            long start = System.nanoTime();
+            List<CompletableFuture<Shop>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                CacheClient client = (i % 2 == 0 ? nodeA : nodeB).cacheClient;
+                futures.add(CompletableFuture.supplyAsync(() -> client.queryWithMutex(
+                        CACHE_SHOP_KEY, 1L, Shop.class, dbFallback, 30L, TimeUnit.MINUTES), pool));
+            }
+            futures.forEach(future -> assertThat(future.join()).isEqualTo(shop(1L)));
+            // 等待超时后的降级也会查数据库，只查一次说明另一个节点是被通知唤醒的
+            assertThat(dbCalls).hasValue(1);
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(WAIT_TIMEOUT_MILLIS);
+        } finally {
+            pool.shutdownNow();
+        }
+        // 唤醒后再次检查命中缓存返回的线程也移除了登记
+        assertThat(nodeA.rebuiltNotices()).isEmpty();
+        assertThat(nodeB.rebuiltNotices()).isEmpty();
+    }
+
+    @Test
+    void waiterWakesOnRebuiltMessage() throws Exception {
+        String key = CACHE_SHOP_KEY + 2;
+        // 节点A持有重建锁
+        RedisReentrantLock lock = nodeA.lockFactory.getLock(key);
+        assertThat(lock.tryLock()).isTrue();
+        AtomicInteger dbCalls = new AtomicInteger();
+        CompletableFuture<Shop> waiter = CompletableFuture.supplyAsync(() -> nodeB.cacheClient.queryWithMutex(
+                CACHE_SHOP_KEY, 2L, Shop.class, id -> {
+                    dbCalls.incrementAndGet();
+                    return shop(id);
+                }, 30L, TimeUnit.MINUTES));
+        Thread.sleep(200);
+        assertThat(waiter).isNotDone();
+        // 节点A写缓存后发通知，锁仍然不释放，节点B只能靠通知醒来再次检查缓存
+        nodeA.cacheClient.set(key, shop(2L), 30L, TimeUnit.MINUTES);
+        stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+        assertThat(waiter.get(WAIT_TIMEOUT_MILLIS / 2, TimeUnit.MILLISECONDS)).isEqualTo(shop(2L));
+        assertThat(dbCalls).hasValue(0);
+        assertThat(nodeB.rebuiltNotices()).isEmpty();
+        lock.unlock();
+    }
+
+    private static final class Node {
+        private final RedisLockFactory lockFactory;
+        private final CacheRebuildExecutor rebuildExecutor;
+        private final CacheClient cacheClient;
+        private final RedisMessageListenerContainer container;
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+
+        private Node() {
+            HotKeyDetector hotKeyDetector = new HotKeyDetector(true, 10, 200, 0.5, 1000, 4096);
+            lockFactory = new RedisLockFactory(stringRedisTemplate, 30000);
+            rebuildExecutor = new CacheRebuildExecutor(hotKeyDetector, 2, 100, 1000);
+            cacheClient = new CacheClient(stringRedisTemplate, redis.getByteRedisTemplate(), new JsonCacheCodec(),
+                    new NearCache(stringRedisTemplate, hotKeyDetector, false, 10000, 60, 1000, 5),
+                    lockFactory, rebuildExecutor, WAIT_TIMEOUT_MILLIS, CacheClient.TimeoutPolicy.FALLBACK_DB, 1.0, 100);
+            container = new RedisMessageListenerContainer();
+            container.setConnectionFactory(redis.getConnectionFactory());
+            container.addMessageListener(cacheClient, new ChannelTopic(CACHE_REBUILT_CHANNEL));
+            container.addMessageListener(lockFactory, new ChannelTopic(LOCK_RELEASED_CHANNEL));
+            container.addMessageListener((message, pattern) -> subscribed.countDown(), new ChannelTopic("test:ready"));
+            container.afterPropertiesSet();
+            container.start();
+        }
+
+        /**
+         * 订阅在后台线程完成，收到探测消息后再开始测试，避免错过通知
+         */
+        private void awaitSubscribed() throws InterruptedException {
+            while (!subscribed.await(50, TimeUnit.MILLISECONDS)) {
+                stringRedisTemplate.convertAndSend("test:ready", "ping");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, ?> rebuiltNotices() {
+            return (Map<String, ?>) ReflectionTestUtils.getField(cacheClient, "rebuiltNotices");
+        }
+
+        private void close() throws Exception {
+            container.destroy();
+            rebuildExecutor.stop();
+            lockFactory.destroy();
+        }
+    }
+}
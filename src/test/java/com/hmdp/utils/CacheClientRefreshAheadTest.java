@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * queryWithRefreshAhead的提前刷新判断，随机数固定为1 - 1/e，此时 -ln(1 - random) = 1，刷新窗口正好等于 delta * beta
+ */
+class CacheClientRefreshAheadTest {
+
+    private static final double RANDOM = 1 - Math.exp(-1);
+    private static final long MIN_DELTA_MILLIS = 100;
+    private static final long EXPIRE_MILLIS = 5000;
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static RedisTemplate<String, byte[]> byteRedisTemplate;
+    private static CacheRebuildExecutor rebuildExecutor;
+    private static RedisLockFactory lockFactory;
+
+    private final CacheCodec codec = new BinaryCacheCodec(64);
+    private final AtomicInteger dbCalls = new AtomicInteger();
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        byteRedisTemplate = redis.getByteRedisTemplate();
+        rebuildExecutor = new CacheRebuildExecutor(new HotKeyDetector(true, 10, 200, 0.5, 1000, 4096), 2, 100, 1000);
+        lockFactory = new RedisLockFactory(stringRedisTemplate, 30000);
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        rebuildExecutor.stop();
+        lockFactory.destroy();
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private CacheClient cacheClient(long minDeltaMillis, double random) {
+        HotKeyDetector hotKeyDetector = new HotKeyDetector(true, 10, 200, 0.5, 1000, 4096);
+        CacheClient cacheClient = new CacheClient(stringRedisTemplate, byteRedisTemplate, codec,
+                new NearCache(stringRedisTemplate, hotKeyDetector, false, 10000, 60, 1000, 5),
+                lockFactory, rebuildExecutor, 3000, CacheClient.TimeoutPolicy.FALLBACK_DB, 1.0, minDeltaMillis);
+        ReflectionTestUtils.setField(cacheClient, "refreshAheadRandom", (DoubleSupplier) () -> random);
+        return cacheClient;
+    }
+
+    private static Shop shop(Long id, String name) {
+        return new Shop().setId(id).setName(name).setScore(37);
+    }
+
+    /**
+     * 写入还有EXPIRE_MILLIS过期、重建耗时为delta的缓存
+     */
+    private void cache(Long id, long deltaMillis) {
+        LocalDateTime expireTime = LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(EXPIRE_MILLIS));
+        byteRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,
+                codec.encodeWithRefreshAhead(shop(id, "cached"), expireTime, deltaMillis));
+    }
+
+    private Shop query(CacheClient cacheClient, Long id) {
+        return cacheClient.queryWithRefreshAhead(CACHE_SHOP_KEY, id, Shop.class, shopId -> {
+            dbCalls.incrementAndGet();
+            return shop(shopId, "reloaded");
+        }, 30L, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 提交的刷新任务在查询返回前登记，执行完才移除，没有提交时立即返回
+     */
+    private static void awaitRefresh(Long id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (rebuildExecutor.isPending(CACHE_SHOP_KEY + id) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void refreshesWhenWindowReachesExpireTime() throws InterruptedException {
+        // 刷新窗口10秒，超过剩余的5秒
+        cache(1L, 2 * EXPIRE_MILLIS);
+        // 提前刷新在后台进行，本次仍然返回缓存的值
+        assertThat(query(cacheClient(MIN_DELTA_MILLIS, RANDOM), 1L).getName()).isEqualTo("cached");
+        awaitRefresh(1L);
+        assertThat(dbCalls).hasValue(1);
+        RedisData refreshed = codec.decodeWithLogicalExpire(byteRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 1), Shop.class);
+        assertThat(((Shop) refreshed.getData()).getName()).isEqualTo("reloaded");
+        assertThat(refreshed.getExpireTime()).isAfter(LocalDateTime.now().plusMinutes(29));
+    }
+
+    @Test
+    void skipsRefreshBelowThreshold() throws InterruptedException {
+        // 刷新窗口1秒，距离过期还有5秒
+        cache(2L, EXPIRE_MILLIS / 5);
+        assertThat(query(cacheClient(MIN_DELTA_MILLIS, RANDOM), 2L).getName()).isEqualTo("cached");
+        // 随机数接近0时窗口接近0，重建再慢也不刷新
+        cache(3L, 100 * EXPIRE_MILLIS);
+        assertThat(query(cacheClient(MIN_DELTA_MILLIS, 0), 3L).getName()).isEqualTo("cached");
+        awaitRefresh(2L);
+        awaitRefresh(3L);
+        assertThat(dbCalls).hasValue(0);
+    }
+
+    @Test
+    void minDeltaFloorsRecordedDelta() throws InterruptedException {
+        // 记录的重建耗时为0，只有下限足够大时才提前刷新
+        cache(4L, 0);
+        assertThat(query(cacheClient(MIN_DELTA_MILLIS, RANDOM), 4L).getName()).isEqualTo("cached");
+        awaitRefresh(4L);
+        assertThat(dbCalls).hasValue(0);
+        assertThat(query(cacheClient(2 * EXPIRE_MILLIS, RANDOM), 4L).getName()).isEqualTo("cached");
+        awaitRefresh(4L);
+        assertThat(dbCalls).hasValue(1);
+    }
+}
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheCodecTest {
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+    private final BinaryCacheCodec binary = new BinaryCacheCodec(64);
+
+    private static Shop shop() {
+        return new Shop().setId(1L).setName("102茶餐厅").setAddress("金华路锦昌文华苑29号").setScore(37);
+    }
+
+    @Test
+    void roundTripsValue() {
+        for (CacheCodec codec : new CacheCodec[]{json, binary}) {
+            Shop decoded = codec.decode(codec.encode(shop()), Shop.class);
+            assertThat(decoded).isEqualTo(shop());
+        }
+    }
+
+    @Test
+    void roundTripsLogicalExpire() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5).truncatedTo(ChronoUnit.MILLIS);
+        for (CacheCodec codec : new CacheCodec[]{json, binary}) {
+            RedisData redisData = codec.decodeWithLogicalExpire(codec.encodeWithLogicalExpire(shop(), expireTime), Shop.class);
+            assertThat(redisData.getData()).isEqualTo(shop());
+            assertThat(redisData.getExpireTime()).isEqualTo(expireTime);
+            assertThat(redisData.getDelta()).isNull();
+        }
+    }
+
+    @Test
+    void roundTripsRefreshAhead() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5).truncatedTo(ChronoUnit.MILLIS);
+        for (CacheCodec codec : new CacheCodec[]{json, binary}) {
+            RedisData redisData = codec.decodeWithLogicalExpire(codec.encodeWithRefreshAhead(shop(), expireTime, 42), Shop.class);
+            assertThat(redisData.getData()).isEqualTo(shop());
+            assertThat(redisData.getDelta()).isEqualTo(42L);
+        }
+    }
+
+    @Test
+    void binaryDeltaFlag() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5).truncatedTo(ChronoUnit.MILLIS);
+        // 第3个字节是标志位：带逻辑过期时间为0b10，带重建耗时为0b100
+        assertThat(binary.encodeWithRefreshAhead(shop(), expireTime, 0)[2] & 0b110).isEqualTo(0b110);
+        assertThat(binary.encodeWithLogicalExpire(shop(), expireTime)[2] & 0b110).isEqualTo(0b010);
+        // 耗时为0也要保存，与没有记录区分
+        for (CacheCodec codec : new CacheCodec[]{json, binary}) {
+            RedisData redisData = codec.decodeWithLogicalExpire(codec.encodeWithRefreshAhead(shop(), expireTime, 0), Shop.class);
+            assertThat(redisData.getDelta()).isZero();
+            assertThat(redisData.getExpireTime()).isEqualTo(expireTime);
+        }
+        // 超过int范围的耗时按最大值保存
+        assertThat(binary.decodeWithLogicalExpire(binary.encodeWithRefreshAhead(shop(), expireTime, Long.MAX_VALUE), Shop.class)
+                .getDelta()).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void roundTripsCompressedRefreshAhead() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5).truncatedTo(ChronoUnit.MILLIS);
+        Shop large = shop().setAddress(new String(new char[1000]).replace('\0', 'x'));
+        byte[] bytes = binary.encodeWithRefreshAhead(large, expireTime, 42);
+        assertThat(bytes[2] & 0b111).isEqualTo(0b111);
+        RedisData redisData = binary.decodeWithLogicalExpire(bytes, Shop.class);
+        assertThat(redisData.getData()).isEqualTo(large);
+        assertThat(redisData.getExpireTime()).isEqualTo(expireTime);
+        assertThat(redisData.getDelta()).isEqualTo(42L);
+        // 不按逻辑过期读取时跳过过期时间和耗时
+        assertThat(binary.decode(bytes, Shop.class)).isEqualTo(large);
+    }
+
+    @Test
+    void binaryReadsLegacyJsonDelta() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5).truncatedTo(ChronoUnit.MILLIS);
+        RedisData redisData = binary.decodeWithLogicalExpire(json.encodeWithRefreshAhead(shop(), expireTime, 42), Shop.class);
+        assertThat(redisData.getData()).isEqualTo(shop());
+        assertThat(redisData.getDelta()).isEqualTo(42L);
+    }
+
+    @Test
+    void logicalExpireWithNullData() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5);
+        for (CacheCodec codec : new CacheCodec[]{json, binary}) {
+            RedisData redisData = codec.decodeWithLogicalExpire(codec.encodeWithLogicalExpire(null, expireTime), Shop.class);
+            assertThat(redisData).isNotNull();
+            assertThat(redisData.getData()).isNull();
+        }
+    }
+
+    @Test
+    void binaryReadsLegacyJson() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5);
+        assertThat(binary.decode(json.encode(shop()), Shop.class)).isEqualTo(shop());
+        assertThat(binary.decodeWithLogicalExpire(json.encodeWithLogicalExpire(shop(), expireTime), Shop.class).getData())
+                .isEqualTo(shop());
+    }
+
+    @Test
+    void jsonTreatsBinaryAsMiss() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(5);
+        assertThat(json.decode(binary.encode(shop()), Shop.class)).isNull();
+        assertThat(json.decodeWithLogicalExpire(binary.encodeWithLogicalExpire(shop(), expireTime), Shop.class)).isNull();
+    }
+
+    @Test
+    void unknownDataIsMiss() {
+        byte[] garbage = "not json".getBytes(StandardCharsets.UTF_8);
+        byte[] futureVersion = {(byte) 0xC1, 2, 0, 1, 2, 3};
+        byte[] truncated = {(byte) 0xC1, 1, 0, 0x3a};
+        assertThat(json.decode(garbage, Shop.class)).isNull();
+        assertThat(binary.decode(futureVersion, Shop.class)).isNull();
+        assertThat(binary.decode(truncated, Shop.class)).isNull();
+        // 不带逻辑过期时间的数据不能按逻辑过期读取
+        assertThat(binary.decodeWithLogicalExpire(binary.encode(shop()), Shop.class)).isNull();
+        assertThat(json.decodeWithLogicalExpire(json.encode(shop()), Shop.class)).isNull();
+    }
+
+    @Test
+    void compressesLargeValues() {
+        Shop large = shop().setAddress(new String(new char[1000]).replace('\0', 'x'));
+        byte[] bytes = binary.encode(large);
+        assertThat(bytes.length).isLessThan(500);
+        assertThat(binary.decode(bytes, Shop.class)).isEqualTo(large);
+    }
+}
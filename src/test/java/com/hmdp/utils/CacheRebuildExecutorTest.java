@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 唯一的工作线程被阻塞，提交的任务都留在队列中
+ */
+class CacheRebuildExecutorTest {
+
+    private static final int CAPACITY = 5;
+
+    private HotKeyDetector hotKeyDetector;
+    private CacheRebuildExecutor rebuildExecutor;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        hotKeyDetector = new HotKeyDetector(true, 10, 1000, 0.5, 10, 4096);
+        rebuildExecutor = new CacheRebuildExecutor(hotKeyDetector, 1, CAPACITY, 1000);
+        release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        rebuildExecutor.submit("blocker", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        rebuildExecutor.stop();
+    }
+
+    @Test
+    void concurrentSubmitsNeverExceedCapacity() {
+        AtomicInteger accepted = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String key = "cache:shop:" + i;
+            futures.add(CompletableFuture.runAsync(() -> {
+                if (rebuildExecutor.submit(key, () -> { })) {
+                    accepted.incrementAndGet();
+                }
+            }));
+        }
+        futures.forEach(CompletableFuture::join);
+        // 先拿到序号、后进入锁的任务可能淘汰排队的任务，提交成功数可以超过容量，但队列不会
+        assertThat(accepted.get()).isGreaterThanOrEqualTo(CAPACITY);
+        assertThat(rebuildExecutor.executor.getQueue()).hasSize(CAPACITY);
+    }
+
+    @Test
+    void hotterKeyEvictsColdest() {
+        for (int i = 0; i < CAPACITY; i++) {
+            assertThat(rebuildExecutor.submit("cache:shop:" + i, () -> { })).isTrue();
+        }
+        for (int i = 0; i < 100; i++) {
+            hotKeyDetector.record("cache:shop:hot");
+        }
+        assertThat(rebuildExecutor.submit("cache:shop:cold", () -> { })).isFalse();
+        assertThat(rebuildExecutor.submit("cache:shop:hot", () -> { })).isTrue();
+        // 相同qps时后提交的更冷，被淘汰
+        assertThat(rebuildExecutor.isPending("cache:shop:" + (CAPACITY - 1))).isFalse();
+        assertThat(rebuildExecutor.isPending("cache:shop:0")).isTrue();
+    }
+}
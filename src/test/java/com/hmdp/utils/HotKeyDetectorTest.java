@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotKeyDetectorTest {
+
+    private static HotKeyDetector detector(int windowSeconds, long thresholdQps, int maxHotKeys) {
+        return new HotKeyDetector(true, windowSeconds, thresholdQps, 0.5, maxHotKeys, 4096);
+    }
+
+    @Test
+    void neverUnderestimates() {
+        HotKeyDetector detector = detector(10, 1000, 10);
+        for (int i = 0; i < 100; i++) {
+            detector.record("cache:shop:1");
+        }
+        // 10秒窗口内100次访问，Count-Min Sketch只会高估
+        assertThat(detector.estimateQps("cache:shop:1")).isGreaterThanOrEqualTo(10);
+        // 只有一个key时其它key在每一行都撞上它的概率可以忽略
+        assertThat(detector.estimateQps("cache:shop:2")).isZero();
+    }
+
+    @Test
+    void promotesKeysAboveThreshold() {
+        HotKeyDetector detector = detector(2, 5, 10);
+        boolean hot = false;
+        for (int i = 0; i < 50; i++) {
+            hot = detector.record("cache:shop:1");
+        }
+        assertThat(hot).isTrue();
+        assertThat(detector.isHot("cache:shop:1")).isTrue();
+        assertThat(detector.record("cache:shop:2")).isFalse();
+        assertThat(detector.hotKeys()).extracting(HotKeyDetector.HotKey::getKey).containsExactly("cache:shop:1");
+    }
+
+    @Test
+    void capsHotKeys() {
+        HotKeyDetector detector = detector(2, 5, 1);
+        for (int i = 0; i < 50; i++) {
+            detector.record("cache:shop:1");
+            detector.record("cache:shop:2");
+        }
+        assertThat(detector.hotKeys()).hasSize(1);
+    }
+
+    @Test
+    void demotesWhenTrafficStops() throws InterruptedException {
+        HotKeyDetector detector = detector(1, 5, 10);
+        for (int i = 0; i < 50; i++) {
+            detector.record("cache:shop:1");
+        }
+        assertThat(detector.isHot("cache:shop:1")).isTrue();
+        // 1秒的窗口过去之后估计值归零，低于阈值的一半
+        Thread.sleep(1100);
+        detector.refresh();
+        assertThat(detector.isHot("cache:shop:1")).isFalse();
+    }
+
+    @Test
+    void notifiesDemotion() throws InterruptedException {
+        HotKeyDetector detector = detector(1, 5, 10);
+        List<String> demoted = new ArrayList<>();
+        detector.addDemotionListener(demoted::add);
+        for (int i = 0; i < 50; i++) {
+            detector.record("cache:shop:1");
+        }
+        Thread.sleep(1100);
+        detector.refresh();
+        assertThat(demoted).containsExactly("cache:shop:1");
+    }
+
+    @Test
+    void disabledDetectorRecordsNothing() {
+        HotKeyDetector detector = new HotKeyDetector(false, 10, 1, 0.5, 10, 4096);
+        for (int i = 0; i < 100; i++) {
+            assertThat(detector.record("cache:shop:1")).isFalse();
+        }
+        assertThat(detector.estimateQps("cache:shop:1")).isZero();
+    }
+}
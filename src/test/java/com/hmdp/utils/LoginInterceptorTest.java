@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 公开查询接口只放行未登录的GET请求，actuator端点除health外需要登录，会话缓存每次返回副本
+ */
+class LoginInterceptorTest {
+
+    private static final String TOKEN = "token-1";
+
+    private static EmbeddedRedis redis;
+    private static LoginSessionCache loginSessionCache;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        Map<String, String> user = new HashMap<>();
+        user.put("id", "1");
+        user.put("nickName", "user_1");
+        user.put("icon", "");
+        redis.getStringRedisTemplate().opsForHash().putAll(LOGIN_USER_KEY + TOKEN, user);
+        loginSessionCache = new LoginSessionCache(redis.getStringRedisTemplate(), true, 100, 60, 60);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @AfterEach
+    void clearUser() {
+        UserHolder.removeUser();
+    }
+
+    private static MockHttpServletRequest request(String method, String uri, String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        if (token != null) {
+            request.addHeader("authorization", token);
+        }
+        return request;
+    }
+
+    @Test
+    void publicReadOnlyAllowsAnonymousGet() throws Exception {
+        LoginInterceptor interceptor = new LoginInterceptor(loginSessionCache, false, true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(interceptor.preHandle(request("GET", "/shop/1", null), response, null)).isTrue();
+        assertThat(UserHolder.getUser()).isNull();
+        // 带token的GET仍然获取登录用户
+        assertThat(interceptor.preHandle(request("GET", "/shop/1", TOKEN), response, null)).isTrue();
+        assertThat(UserHolder.getUser().getId()).isEqualTo(1L);
+    }
+
+    @Test
+    void publicReadOnlyRejectsAnonymousWrites() throws Exception {
+        LoginInterceptor interceptor = new LoginInterceptor(loginSessionCache, false, true);
+        for (String method : new String[]{"POST", "PUT", "DELETE"}) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            assertThat(interceptor.preHandle(request(method, "/shop/1", null), response, null)).isFalse();
+            assertThat(response.getStatus()).isEqualTo(401);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(interceptor.preHandle(request("POST", "/shop/1", TOKEN), response, null)).isTrue();
+    }
+
+    @Test
+    void actuatorRequiresLoginExceptHealth() throws Exception {
+        ActuatorLoginFilter filter = new ActuatorLoginFilter(loginSessionCache);
+        MockHttpServletResponse health = new MockHttpServletResponse();
+        MockFilterChain healthChain = new MockFilterChain();
+        filter.doFilter(request("GET", "/actuator/health", null), health, healthChain);
+        assertThat(healthChain.getRequest()).isNotNull();
+
+        MockHttpServletResponse anonymous = new MockHttpServletResponse();
+        MockFilterChain anonymousChain = new MockFilterChain();
+        filter.doFilter(request("GET", "/actuator/prometheus", null), anonymous, anonymousChain);
+        assertThat(anonymous.getStatus()).isEqualTo(401);
+        assertThat(anonymousChain.getRequest()).isNull();
+
+        MockFilterChain loggedInChain = new MockFilterChain();
+        filter.doFilter(request("GET", "/actuator/prometheus", TOKEN), new MockHttpServletResponse(), loggedInChain);
+        assertThat(loggedInChain.getRequest()).isNotNull();
+    }
+
+    @Test
+    void sessionCacheHandsOutCopies() {
+        UserDTO first = loginSessionCache.get(TOKEN);
+        first.setNickName("changed");
+        UserDTO second = loginSessionCache.get(TOKEN);
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getNickName()).isEqualTo("user_1");
+    }
+}
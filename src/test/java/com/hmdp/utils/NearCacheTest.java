@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 跨节点失效：两个NearCache模拟两个节点，订阅同一个redis的失效频道，一个节点失效后另一个节点的一级缓存也被清除
+ */
+class NearCacheTest {
+
+    private static final long WAIT_MILLIS = 3000;
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static RedisMessageListenerContainer container;
+    private static NearCache nodeA;
+    private static NearCache nodeB;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        nodeA = nearCache();
+        nodeB = nearCache();
+        CountDownLatch subscribed = new CountDownLatch(1);
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redis.getConnectionFactory());
+        container.addMessageListener(nodeA, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        container.addMessageListener(nodeB, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        container.addMessageListener((message, pattern) -> subscribed.countDown(), new ChannelTopic("test:ready"));
+        container.afterPropertiesSet();
+        container.start();
+        // 订阅在后台线程完成，收到探测消息后再开始测试，避免错过通知
+        while (!subscribed.await(50, TimeUnit.MILLISECONDS)) {
+            stringRedisTemplate.convertAndSend("test:ready", "ping");
+        }
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        container.destroy();
+        redis.close();
+    }
+
+    private static NearCache nearCache() {
+        HotKeyDetector hotKeyDetector = new HotKeyDetector(true, 10, 200, 0.5, 1000, 4096);
+        return new NearCache(stringRedisTemplate, hotKeyDetector, true, 10000, 60, 1000, 5);
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Test
+    void invalidatesOtherNode() throws InterruptedException {
+        String key = CACHE_SHOP_KEY + 1;
+        nodeA.put(CACHE_SHOP_KEY, key, "a");
+        nodeB.put(CACHE_SHOP_KEY, key, "b");
+        assertThat(nodeB.peek(CACHE_SHOP_KEY, key)).isEqualTo("b");
+        nodeA.invalidateAll(key);
+        // 本节点同步失效
+        assertThat(nodeA.peek(CACHE_SHOP_KEY, key)).isNull();
+        assertThat(await(() -> nodeB.peek(CACHE_SHOP_KEY, key) == null)).isTrue();
+    }
+
+    @Test
+    void invalidatesBatchOnOtherNode() throws InterruptedException {
+        String first = CACHE_SHOP_KEY + 2;
+        String second = CACHE_SHOP_KEY + 3;
+        String untouched = CACHE_SHOP_KEY + 4;
+        for (String key : Arrays.asList(first, second, untouched)) {
+            nodeB.put(CACHE_SHOP_KEY, key, key);
+        }
+        nodeB.put(CACHE_SHOP_KEY, CACHE_SHOP_KEY + 5, null);
+        nodeA.invalidateAll(Arrays.asList(first, second, CACHE_SHOP_KEY + 5));
+        assertThat(await(() -> nodeB.peek(CACHE_SHOP_KEY, first) == null
+                && nodeB.peek(CACHE_SHOP_KEY, second) == null
+                && nodeB.peek(CACHE_SHOP_KEY, CACHE_SHOP_KEY + 5) == null)).isTrue();
+        // 消息中没有的key不受影响
+        assertThat(nodeB.peek(CACHE_SHOP_KEY, untouched)).isEqualTo(untouched);
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * rate_limit.lua的滑动窗口估算和等待时间，时间戳由参数传入，结果与执行快慢无关
+ */
+class RateLimitScriptTest {
+
+    private static final long WINDOW = 1000;
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static DefaultRedisScript<List> script;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("rate_limit.lua"));
+        script.setResultType(List.class);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        stringRedisTemplate.execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    /**
+     * @param limits 每个维度的上限，窗口都为WINDOW
+     * @return 通过时为0，拒绝时为{维度序号, 等待毫秒数}
+     */
+    private static List<Long> acquire(long now, List<String> keys, long... limits) {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(now));
+        for (long limit : limits) {
+            args.add(String.valueOf(limit));
+            args.add(String.valueOf(WINDOW));
+        }
+        List<?> result = stringRedisTemplate.execute(script, keys, args.toArray());
+        List<Long> values = new ArrayList<>();
+        result.forEach(value -> values.add(((Number) value).longValue()));
+        return values;
+    }
+
+    private static List<Long> acquire(long now, long limit) {
+        return acquire(now, Arrays.asList("limit:user:1"), limit);
+    }
+
+    @Test
+    void fullWindowWaitsForPreviousWeight() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(acquire(10_000, 5)).containsExactly(0L);
+        }
+        // 当前窗口已满：下一个窗口中上一个窗口的权重降到4/5时通过，即11200
+        assertThat(acquire(10_000, 5)).containsExactly(1L, 1200L);
+        assertThat(acquire(11_199, 5).get(0)).isEqualTo(1L);
+        assertThat(acquire(11_200, 5)).containsExactly(0L);
+    }
+
+    @Test
+    void previousWindowWeightDecays() {
+        for (int i = 0; i < 10; i++) {
+            acquire(10_000, 10);
+        }
+        // 上一个窗口10次，上限5：权重降到4/10时通过，即11600
+        assertThat(acquire(11_000, 5)).containsExactly(1L, 600L);
+        assertThat(acquire(11_300, 5)).containsExactly(1L, 300L);
+        assertThat(acquire(11_600, 5)).containsExactly(0L);
+    }
+
+    @Test
+    void rejectedDimensionCountsNothing() {
+        List<String> keys = Arrays.asList("limit:user:1", "limit:global");
+        assertThat(acquire(10_000, keys, 5, 1)).containsExactly(0L);
+        // 第二个维度超限，第一个维度也不计数
+        assertThat(acquire(10_000, keys, 5, 1).get(0)).isEqualTo(2L);
+        assertThat(stringRedisTemplate.opsForValue().get("limit:user:1:10")).isEqualTo("1");
+        assertThat(stringRedisTemplate.getExpire("limit:user:1:10")).isBetween(1L, 2L);
+    }
+
+    @Test
+    void waitIsAtLeastOneMillisecond() {
+        for (int i = 0; i < 5; i++) {
+            acquire(10_999, 5);
+        }
+        // 窗口的最后一毫秒，等待时间不会是0
+        assertThat(acquire(10_999, 5).get(1)).isGreaterThanOrEqualTo(1L);
+    }
+}
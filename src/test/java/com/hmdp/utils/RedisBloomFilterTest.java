@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RedisBloomFilterTest {
+
+    private static EmbeddedRedis redis;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        redis.getStringRedisTemplate().execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static RedisBloomFilter filter(long expectedInsertions, double fpp, long maxMemoryMb) {
+        return new RedisBloomFilter("test", redis.getStringRedisTemplate(), true,
+                expectedInsertions, fpp, maxMemoryMb, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void sizesForExpectedInsertions() {
+        RedisBloomFilter filter = filter(1_000_000, 0.01, 64);
+        // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+        assertThat(filter.getBits()).isEqualTo(9_585_059L);
+        assertThat(filter.getHashes()).isEqualTo(7);
+        assertThat(filter.getExpectedFpp()).isBetween(0.009, 0.011);
+    }
+
+    @Test
+    void memoryCapRaisesFpp() {
+        RedisBloomFilter filter = filter(10_000_000, 0.01, 1);
+        assertThat(filter.getBits()).isEqualTo(8L * 1024 * 1024);
+        assertThat(filter.getHashes()).isEqualTo(1);
+        assertThat(filter.getExpectedFpp()).isGreaterThan(0.5);
+        // 元素很少时不小于64位
+        assertThat(filter(1, 0.01, 64).getBits()).isEqualTo(64L);
+    }
+
+    @Test
+    void offsetsAreStableAndInRange() {
+        RedisBloomFilter filter = filter(1_000_000, 0.01, 64);
+        long[] offsets = filter.offsets(42L);
+        assertThat(offsets).hasSize(filter.getHashes());
+        for (long offset : offsets) {
+            assertThat(offset).isBetween(0L, filter.getBits() - 1);
+        }
+        assertThat(filter.offsets(42L)).containsExactly(offsets);
+        assertThat(Arrays.equals(filter.offsets(43L), offsets)).isFalse();
+        // 位数不同的过滤器位置不同，标记值随之变化，需要重建
+        assertThat(Arrays.equals(filter(2_000_000, 0.01, 64).offsets(42L), offsets)).isFalse();
+    }
+
+    @Test
+    void rejectsUnknownIdsOnceReady() {
+        RedisBloomFilter filter = filter(10_000, 0.01, 64);
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 10_000; id++) {
+            ids.add(id);
+        }
+        filter.load(ids);
+        // 标记不存在时全部放行
+        assertThat(filter.isReady()).isFalse();
+        assertThat(filter.mightContain(20_000L)).isTrue();
+        filter.markReady();
+        assertThat(filter.isReady()).isTrue();
+        assertThat(ids).allMatch(filter::mightContain);
+        int falsePositives = 0;
+        for (long id = 10_001; id <= 20_000; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(300);
+    }
+
+    @Test
+    void configChangeInvalidatesMarker() {
+        filter(10_000, 0.01, 64).markReady();
+        // 同名过滤器换了参数，标记值不匹配，视为未加载
+        RedisBloomFilter resized = filter(20_000, 0.01, 64);
+        assertThat(resized.isReady()).isFalse();
+        assertThat(resized.mightContain(1L)).isTrue();
+    }
+}
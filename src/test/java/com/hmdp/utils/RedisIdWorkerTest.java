@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 多线程、多节点发号：id全局唯一，同一线程拿到的id递增，号段很小以便多次跨越号段边界
+ */
+class RedisIdWorkerTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 2000;
+    private static final long SEGMENT_SIZE = 10;
+
+    private static EmbeddedRedis redis;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        redis.getStringRedisTemplate().execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    /**
+     * 每个线程交替使用各个节点发号，返回每个线程拿到的id
+     */
+    private static List<List<Long>> generate(RedisIdWorker... workers) {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<CompletableFuture<List<Long>>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    List<Long> ids = new ArrayList<>(IDS_PER_THREAD);
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        ids.add(workers[i % workers.length].nextId("order"));
+                    }
+                    return ids;
+                }, pool));
+            }
+            start.countDown();
+            List<List<Long>> result = new ArrayList<>();
+            futures.forEach(future -> result.add(future.join()));
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void assertUniqueAndIncreasing(List<List<Long>> idsPerThread) {
+        Set<Long> all = new HashSet<>();
+        for (List<Long> ids : idsPerThread) {
+            for (int i = 0; i < ids.size(); i++) {
+                assertThat(all.add(ids.get(i))).as("重复的id %d", ids.get(i)).isTrue();
+                if (i > 0) {
+                    assertThat(ids.get(i)).isGreaterThan(ids.get(i - 1));
+                }
+            }
+        }
+        assertThat(all).hasSize(THREADS * IDS_PER_THREAD);
+    }
+
+    @Test
+    void segmentIdsAreUniqueAcrossBoundaries() {
+        RedisIdWorker worker = new RedisIdWorker(redis.getStringRedisTemplate(), true, SEGMENT_SIZE);
+        assertUniqueAndIncreasing(generate(worker));
+    }
+
+    @Test
+    void segmentIdsAreUniqueAcrossNodes() {
+        // 两个节点从同一个计数器租用号段，号段互不重叠
+        RedisIdWorker nodeA = new RedisIdWorker(redis.getStringRedisTemplate(), true, SEGMENT_SIZE);
+        RedisIdWorker nodeB = new RedisIdWorker(redis.getStringRedisTemplate(), true, SEGMENT_SIZE);
+        RedisIdWorker incr = new RedisIdWorker(redis.getStringRedisTemplate(), false, SEGMENT_SIZE);
+        List<List<Long>> idsPerThread = generate(nodeA, nodeB, incr);
+        // 不同节点的号段交错发放，同一线程内只保证唯一
+        Set<Long> all = new HashSet<>();
+        idsPerThread.forEach(all::addAll);
+        assertThat(all).hasSize(THREADS * IDS_PER_THREAD);
+        // 单节点按线程检查递增
+        assertUniqueAndIncreasing(generate(nodeA));
+    }
+}
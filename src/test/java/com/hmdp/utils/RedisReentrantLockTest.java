@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASED_CHANNEL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * lock.lua、unlock.lua、renew.lua和看门狗、释放通知，租约设得很短，续约失效时测试能很快发现
+ */
+class RedisReentrantLockTest {
+
+    private static final long LEASE_MILLIS = 300;
+
+    private static EmbeddedRedis redis;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static RedisLockFactory lockFactory;
+    private static RedisMessageListenerContainer container;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        stringRedisTemplate = redis.getStringRedisTemplate();
+        lockFactory = new RedisLockFactory(stringRedisTemplate, LEASE_MILLIS);
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redis.getConnectionFactory());
+        container.addMessageListener(lockFactory, new ChannelTopic(LOCK_RELEASED_CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        container.destroy();
+        lockFactory.destroy();
+        redis.close();
+    }
+
+    private static String name() {
+        return "test:" + UUID.randomUUID();
+    }
+
+    /**
+     * 在另一个线程尝试加锁，成功后立即释放
+     */
+    private static boolean tryLockInOtherThread(RedisReentrantLock lock) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (!lock.tryLock()) {
+                return false;
+            }
+            lock.unlock();
+            return true;
+        }).join();
+    }
+
+    @Test
+    void reentersAndReleasesOnLastUnlock() {
+        String name = name();
+        RedisReentrantLock lock = lockFactory.getLock(name);
+        assertThat(lock.tryLock()).isTrue();
+        assertThat(lock.tryLock()).isTrue();
+        assertThat(stringRedisTemplate.opsForHash().values(LOCK_KEY + name)).containsExactly("2");
+        lock.unlock();
+        // 还有一层重入，其它线程拿不到
+        assertThat(tryLockInOtherThread(lockFactory.getLock(name))).isFalse();
+        lock.unlock();
+        assertThat(stringRedisTemplate.hasKey(LOCK_KEY + name)).isFalse();
+        assertThat(tryLockInOtherThread(lockFactory.getLock(name))).isTrue();
+    }
+
+    @Test
+    void unlockByNonOwnerIsIgnored() {
+        String name = name();
+        RedisReentrantLock lock = lockFactory.getLock(name);
+        assertThat(lock.tryLock()).isTrue();
+        CompletableFuture.runAsync(() -> lockFactory.getLock(name).unlock()).join();
+        assertThat(stringRedisTemplate.hasKey(LOCK_KEY + name)).isTrue();
+        lock.unlock();
+    }
+
+    @Test
+    void watchdogRenewsUntilUnlock() throws InterruptedException {
+        String name = name();
+        RedisReentrantLock lock = lockFactory.getLock(name);
+        assertThat(lock.tryLock()).isTrue();
+        // 超过两个租约仍然持有
+        Thread.sleep(LEASE_MILLIS * 2 + 100);
+        assertThat(stringRedisTemplate.hasKey(LOCK_KEY + name)).isTrue();
+        lock.unlock();
+        assertThat(stringRedisTemplate.hasKey(LOCK_KEY + name)).isFalse();
+    }
+
+    @Test
+    void fixedLeaseIsNotRenewed() throws InterruptedException {
+        String name = name();
+        assertThat(lockFactory.getLock(name).tryLock(0)).isTrue();
+        // tryLock(timeoutSec)不续约，租约为0秒时立即过期
+        Thread.sleep(50);
+        assertThat(stringRedisTemplate.hasKey(LOCK_KEY + name)).isFalse();
+    }
+
+    @Test
+    void stopRenewalKeepsOtherOwners() throws InterruptedException {
+        String key = LOCK_KEY + name();
+        // 同一节点的另一个线程已经拿到锁并登记了续约
+        stringRedisTemplate.execute(RedisLockFactory.LOCK_SCRIPT, Collections.singletonList(key),
+                "other", String.valueOf(LEASE_MILLIS));
+        lockFactory.startRenewal(key, "other");
+        lockFactory.stopRenewal(key, lockFactory.ownerOfCurrentThread());
+        Thread.sleep(LEASE_MILLIS * 2 + 100);
+        assertThat(stringRedisTemplate.hasKey(key)).isTrue();
+        lockFactory.stopRenewal(key, "other");
+        stringRedisTemplate.delete(key);
+    }
+
+    @Test
+    void waiterWakesOnRelease() throws Exception {
+        String name = name();
+        RedisReentrantLock lock = lockFactory.getLock(name);
+        assertThat(lock.tryLock()).isTrue();
+        CompletableFuture<Long> waited = CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                RedisReentrantLock other = lockFactory.getLock(name);
+                boolean locked = other.tryLock(10, TimeUnit.SECONDS);
+                if (locked) {
+                    other.unlock();
+                }
+                return locked ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) : -1L;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1L;
+            }
+        });
+        Thread.sleep(200);
+        lock.unlock();
+        // 由释放通知唤醒，不需要等到10秒的等待时间结束
+        assertThat(waited.get(5, TimeUnit.SECONDS)).isBetween(0L, 2000L);
+    }
+}
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.dto.VisitStats;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 访问先记在本地，flush后查询合并去重的uv；写入redis失败的批次合并回缓冲区，下次刷新时写入
+ */
+class VisitCounterTest {
+
+    private static EmbeddedRedis redis;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        redis.getStringRedisTemplate().execute(connection -> {
+            connection.flushAll();
+            return null;
+        }, true);
+    }
+
+    private static MockHttpServletRequest request(String ip) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/shop/1");
+        request.setRemoteAddr(ip);
+        return request;
+    }
+
+    private static VisitStats today(VisitCounter counter) {
+        LocalDate today = LocalDate.now();
+        return counter.query(VisitCounter.SHOP, 1L, today, today);
+    }
+
+    @Test
+    void recordFlushQuery() {
+        VisitCounter counter = new VisitCounter(redis.getStringRedisTemplate(), "", 100, 90);
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.1"));
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.1"));
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.2"));
+        // 刷新前redis中没有数据
+        assertThat(today(counter).getPv()).isZero();
+        counter.flush();
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.2"));
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.3"));
+        counter.flush();
+        VisitStats stats = today(counter);
+        assertThat(stats.getUv()).isEqualTo(3);
+        assertThat(stats.getPv()).isEqualTo(5);
+        assertThat(stats.getDays()).hasSize(1);
+    }
+
+    @Test
+    void failedBatchIsMergedBack() {
+        FailingTemplate template = new FailingTemplate();
+        VisitCounter counter = new VisitCounter(template, "", 100, 90);
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.1"));
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.2"));
+        template.failures = 1;
+        counter.flush();
+        assertThat(today(counter).getPv()).isZero();
+        // 失败的批次与新的访问合并后一起写入，重复的访客只计一次
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.2"));
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.3"));
+        counter.flush();
+        VisitStats stats = today(counter);
+        assertThat(stats.getUv()).isEqualTo(3);
+        assertThat(stats.getPv()).isEqualTo(4);
+    }
+
+    @Test
+    void mergeBackRespectsMaxPending() {
+        FailingTemplate template = new FailingTemplate();
+        VisitCounter counter = new VisitCounter(template, "", 3, 90);
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.1"));
+        counter.record(VisitCounter.SHOP, 1L, request("10.0.0.2"));
+        // 刷新期间新的访问占满了缓冲区，失败的批次只能放回pv
+        template.failures = 1;
+        template.duringFailure = () -> {
+            for (int i = 3; i <= 5; i++) {
+                counter.record(VisitCounter.SHOP, 1L, request("10.0.0." + i));
+            }
+        };
+        counter.flush();
+        counter.flush();
+        VisitStats stats = today(counter);
+        assertThat(stats.getUv()).isEqualTo(3);
+        assertThat(stats.getPv()).isEqualTo(5);
+    }
+
+    /**
+     * 前failures次pipeline抛出连接异常，抛出前执行duringFailure模拟刷新期间的访问
+     */
+    private static final class FailingTemplate extends StringRedisTemplate {
+        private int failures;
+        private Runnable duringFailure = () -> {
+        };
+
+        private FailingTemplate() {
+            super(redis.getConnectionFactory());
+        }
+
+        @Override
+        public List<Object> executePipelined(SessionCallback<?> session) {
+            if (failures > 0) {
+                failures--;
+                duringFailure.run();
+                throw new RedisConnectionFailureException("模拟redis不可用");
+            }
+            return super.executePipelined(session);
+        }
+    }
+}